@@ -0,0 +1,75 @@
+package com.sun.tinker.sns.share.demo;
+
+import java.util.Arrays;
+
+/**
+ * 基准测试的采样统计，记录每次迭代的耗时并计算分位数
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class BenchmarkStats {
+    private final String mName;
+    private long[] mSamples = new long[16];
+    private int mCount;
+
+    public BenchmarkStats(String name) {
+        mName = name;
+    }
+
+    public void add(long sample) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = sample;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getMin() {
+        return percentile(0);
+    }
+
+    public long getMax() {
+        return percentile(100);
+    }
+
+    public long getMedian() {
+        return percentile(50);
+    }
+
+    public double getMean() {
+        if (mCount == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < mCount; i++) {
+            sum += mSamples[i];
+        }
+        return (double) sum / mCount;
+    }
+
+    /**
+     * 最近秩法计算分位数
+     *
+     * @param percent 0~100
+     * @return 没有采样时返回0
+     */
+    public long percentile(double percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100 * mCount);
+        return sorted[Math.min(mCount - 1, Math.max(0, rank - 1))];
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": n=" + mCount + ", min=" + getMin() + ", p50=" + getMedian()
+                + ", p90=" + percentile(90) + ", p99=" + percentile(99) + ", max=" + getMax()
+                + ", mean=" + String.format("%.1f", getMean());
+    }
+}
@@ -0,0 +1,165 @@
+package com.sun.tinker.sns.share.demo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的本地HTTP服务
+ * <p>
+ * 按顺序返回预先设置的响应，支持同一连接上的多个请求，并记录收到的请求，
+ * 没有可用的响应时关闭连接
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class FakeHttpServer extends Thread {
+    private final ServerSocket mSocket = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+    private final LinkedList<byte[]> mResponses = new LinkedList<byte[]>();
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnections = new AtomicInteger();
+
+    public FakeHttpServer() throws IOException {
+        super("fake-http-server");
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + mSocket.getLocalPort() + path;
+    }
+
+    /**
+     * @param code    响应码
+     * @param headers 额外的响应头，每行以\r\n结尾
+     * @param body    响应内容
+     */
+    public void enqueue(int code, String headers, byte[] body) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(("HTTP/1.1 " + code + " Fake\r\n" + headers + "Content-Length: " + body.length
+                + "\r\n\r\n").getBytes("UTF-8"));
+        response.write(body);
+        synchronized (mResponses) {
+            mResponses.add(response.toByteArray());
+        }
+    }
+
+    /**
+     * 已经收到的请求，按收到的顺序排列
+     */
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final Socket socket = mSocket.accept();
+                mConnections.incrementAndGet();
+                new Thread("fake-http-connection") {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }.start();
+            }
+        } catch (IOException e) {
+            // 测试结束时关闭监听会走到这里
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        "UTF-8"));
+                OutputStream output = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = reader.readLine()) != null) {
+                    Map<String, String> headers = new LinkedHashMap<String, String>();
+                    String line;
+                    while ((line = reader.readLine()) != null && line.length() > 0) {
+                        int colon = line.indexOf(':');
+                        if (colon > 0) {
+                            headers.put(line.substring(0, colon).trim().toLowerCase(),
+                                    line.substring(colon + 1).trim());
+                        }
+                    }
+                    String length = headers.get("content-length");
+                    int contentLength = length != null ? Integer.parseInt(length) : 0;
+                    char[] body = new char[contentLength];
+                    int read = 0;
+                    while (read < contentLength) {
+                        int count = reader.read(body, read, contentLength - read);
+                        if (count < 0) {
+                            break;
+                        }
+                        read += count;
+                    }
+                    mRequests.add(new Request(requestLine, headers, new String(body, 0, read)));
+
+                    byte[] response;
+                    synchronized (mResponses) {
+                        response = mResponses.poll();
+                    }
+                    if (response == null) {
+                        return;
+                    }
+                    output.write(response);
+                    output.flush();
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // 客户端断开连接
+        }
+    }
+
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    /**
+     * 收到的请求
+     */
+    public static final class Request {
+        /**
+         * 请求行，例如"GET /image HTTP/1.1"
+         */
+        public final String line;
+        private final Map<String, String> mHeaders;
+        public final String body;
+
+        Request(String line, Map<String, String> headers, String body) {
+            this.line = line;
+            mHeaders = headers;
+            this.body = body;
+        }
+
+        /**
+         * @param name 不区分大小写
+         * @return 没有这个请求头时返回null
+         */
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.sun.tinker.sns.share.demo.R;
+
+import java.io.File;
+
+/**
+ * 测试{@link AssetMaterializer}只在文件不存在时写入，并对比命中缓存与重新写入的耗时
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class AssetMaterializerTest extends InstrumentationTestCase {
+    private static final String TAG = "AssetMaterializerTest";
+
+    public void testReusesExistingFile() throws Exception {
+        AssetMaterializer materializer = new AssetMaterializer(getInstrumentation().getTargetContext());
+        File file = materializer.getOrCreate(R.mipmap.share, Bitmap.CompressFormat.JPEG, 100);
+        assertTrue(file.delete());
+
+        long start = SystemClock.elapsedRealtime();
+        file = materializer.getOrCreate(R.mipmap.share, Bitmap.CompressFormat.JPEG, 100);
+        long writeMillis = SystemClock.elapsedRealtime() - start;
+        assertTrue(file.isFile() && file.length() > 0);
+        long length = file.length();
+        long modified = file.lastModified();
+
+        start = SystemClock.elapsedRealtime();
+        File cached = materializer.getOrCreate(R.mipmap.share, Bitmap.CompressFormat.JPEG, 100);
+        long hitMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(file, cached);
+        assertEquals(length, cached.length());
+        assertEquals(modified, cached.lastModified());
+        Log.i(TAG, "write " + writeMillis + "ms, cache hit " + hitMillis + "ms");
+    }
+}
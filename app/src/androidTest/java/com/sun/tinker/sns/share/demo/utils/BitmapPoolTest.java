@@ -0,0 +1,107 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import junit.framework.TestCase;
+
+/**
+ * 测试{@link BitmapPool}的复用、重新配置尺寸和按总大小淘汰
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class BitmapPoolTest extends TestCase {
+    private static final int SIZE = 100;
+    private static final int BITMAP_BYTES = SIZE * SIZE * 4;
+
+    private BitmapPool mPool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = new BitmapPool(2 * BITMAP_BYTES);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPool.clear();
+        super.tearDown();
+    }
+
+    public void testReturnedBitmapIsReused() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mPool.put(bitmap);
+        assertEquals(BITMAP_BYTES, mPool.getCurrentBytes());
+
+        assertSame(bitmap, mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(0, mPool.getCurrentBytes());
+    }
+
+    public void testMissWhenEmpty() {
+        assertNull(mPool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(1, mPool.getMissCount());
+
+        Bitmap created = mPool.getOrCreate(SIZE, SIZE, Bitmap.Config.RGB_565);
+        assertEquals(SIZE, created.getWidth());
+        assertEquals(Bitmap.Config.RGB_565, created.getConfig());
+        created.recycle();
+    }
+
+    public void testLargerBitmapIsReconfigured() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mPool.put(bitmap);
+
+        Bitmap reused = mPool.get(SIZE / 2, SIZE, Bitmap.Config.RGB_565);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // 容量足够即可复用，并重新配置为需要的尺寸和格式
+            assertSame(bitmap, reused);
+            assertEquals(SIZE / 2, reused.getWidth());
+            assertEquals(SIZE, reused.getHeight());
+            assertEquals(Bitmap.Config.RGB_565, reused.getConfig());
+        } else {
+            // 4.4以下只能复用尺寸和格式完全一致的图片
+            assertNull(reused);
+        }
+    }
+
+    public void testMuchLargerBitmapIsNotReused() {
+        mPool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        assertNull(mPool.get(SIZE / 4, SIZE / 4, Bitmap.Config.ARGB_8888));
+        assertEquals(BITMAP_BYTES, mPool.getCurrentBytes());
+    }
+
+    public void testImmutableBitmapIsRecycled() {
+        Bitmap bitmap = Bitmap.createBitmap(new int[SIZE * SIZE], SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        assertFalse(bitmap.isMutable());
+
+        mPool.put(bitmap);
+
+        assertTrue(bitmap.isRecycled());
+        assertEquals(0, mPool.getCurrentBytes());
+    }
+
+    public void testEldestIsEvictedOverLimit() {
+        Bitmap first = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Bitmap third = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+
+        mPool.put(first);
+        mPool.put(second);
+        mPool.put(third);
+
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+        assertFalse(third.isRecycled());
+        assertEquals(2 * BITMAP_BYTES, mPool.getCurrentBytes());
+    }
+
+    public void testDuplicatePutIsIgnored() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mPool.put(bitmap);
+        mPool.put(bitmap);
+
+        assertEquals(BITMAP_BYTES, mPool.getCurrentBytes());
+    }
+}
@@ -0,0 +1,99 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.BitmapFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * 测试{@link ImageUtil#applyDecodeSpec}在各个采样策略下计算的采样比例
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class DecodeSpecTest extends TestCase {
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    public void testRoundUsesLargerRatio() {
+        BitmapFactory.Options options = apply(WIDTH, HEIGHT, new DecodeSpec(720, 1280));
+
+        // 宽度比例5.56四舍五入为6，大于高度比例2
+        assertEquals(6, options.inSampleSize);
+        assertFalse(options.inScaled);
+    }
+
+    public void testSmallImageIsNotSampled() {
+        for (DecodeSpec.SampleMode mode : DecodeSpec.SampleMode.values()) {
+            BitmapFactory.Options options = apply(500, 400, new DecodeSpec(720, 1280).setSampleMode(mode));
+
+            assertEquals(1, options.inSampleSize);
+            assertFalse(options.inScaled);
+        }
+    }
+
+    public void testUnknownSizeIsNotSampled() {
+        BitmapFactory.Options options = apply(0, 0,
+                new DecodeSpec(720, 1280).setSampleMode(DecodeSpec.SampleMode.EXACT));
+
+        assertEquals(1, options.inSampleSize);
+        assertFalse(options.inScaled);
+    }
+
+    public void testPowerOfTwoKeepsTargetSize() {
+        BitmapFactory.Options options = apply(WIDTH, HEIGHT,
+                new DecodeSpec(720, 1280).setSampleMode(DecodeSpec.SampleMode.POWER_OF_TWO));
+
+        assertEquals(4, options.inSampleSize);
+        assertTrue(WIDTH / options.inSampleSize >= 720);
+        assertFalse(options.inScaled);
+    }
+
+    public void testPowerOfTwoRespectsMaxBytes() {
+        BitmapFactory.Options options = apply(WIDTH, HEIGHT, new DecodeSpec(2000, 2000)
+                .setSampleMode(DecodeSpec.SampleMode.POWER_OF_TWO).setMaxBytes(MAX_BYTES));
+
+        // 按目标尺寸只需要采样2，但2000x1500的ARGB_8888超过4MB
+        assertEquals(4, options.inSampleSize);
+        assertWithinBudget(options);
+    }
+
+    public void testRoundRespectsMaxBytes() {
+        BitmapFactory.Options options = apply(WIDTH, HEIGHT,
+                new DecodeSpec(2000, 2000).setMaxBytes(MAX_BYTES));
+
+        assertEquals(4, options.inSampleSize);
+        assertWithinBudget(options);
+    }
+
+    public void testExactScalesDownToTarget() {
+        BitmapFactory.Options options = apply(WIDTH, HEIGHT,
+                new DecodeSpec(720, 1280).setSampleMode(DecodeSpec.SampleMode.EXACT));
+
+        assertEquals(4, options.inSampleSize);
+        assertTrue(options.inScaled);
+        long width = (long) (WIDTH / options.inSampleSize) * options.inTargetDensity / options.inDensity;
+        assertTrue(width <= 720 && width >= 719);
+    }
+
+    public void testExactPowerOfTwoNeedsNoScaling() {
+        BitmapFactory.Options options = apply(WIDTH, HEIGHT,
+                new DecodeSpec(1000, 1000).setSampleMode(DecodeSpec.SampleMode.EXACT));
+
+        assertEquals(4, options.inSampleSize);
+        assertFalse(options.inScaled);
+    }
+
+    private static BitmapFactory.Options apply(int width, int height, DecodeSpec spec) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = width;
+        options.outHeight = height;
+        ImageUtil.applyDecodeSpec(options, spec);
+        return options;
+    }
+
+    private static void assertWithinBudget(BitmapFactory.Options options) {
+        long width = (WIDTH + options.inSampleSize - 1) / options.inSampleSize;
+        long height = (HEIGHT + options.inSampleSize - 1) / options.inSampleSize;
+        assertTrue(width * height * 4 <= MAX_BYTES);
+    }
+}
@@ -0,0 +1,133 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 测试EXIF方向的变换矩阵，以及解码时按EXIF方向旋转图片
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ExifOrientationTest extends TestCase {
+    private static final float WIDTH = 4;
+    private static final float HEIGHT = 2;
+    private static final float DELTA = 0.0001f;
+
+    private File mFile;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mFile != null) {
+            mFile.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testOrientationMatrix() {
+        // 未旋转图片中的点(1, 0.5)按各个方向显示时的位置
+        assertMaps(ExifInterface.ORIENTATION_NORMAL, 1, 0.5f);
+        assertMaps(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, WIDTH - 1, 0.5f);
+        assertMaps(ExifInterface.ORIENTATION_ROTATE_180, WIDTH - 1, HEIGHT - 0.5f);
+        assertMaps(ExifInterface.ORIENTATION_FLIP_VERTICAL, 1, HEIGHT - 0.5f);
+        assertMaps(ExifInterface.ORIENTATION_TRANSPOSE, 0.5f, 1);
+        assertMaps(ExifInterface.ORIENTATION_ROTATE_90, HEIGHT - 0.5f, 1);
+        assertMaps(ExifInterface.ORIENTATION_TRANSVERSE, HEIGHT - 0.5f, WIDTH - 1);
+        assertMaps(ExifInterface.ORIENTATION_ROTATE_270, 0.5f, WIDTH - 1);
+    }
+
+    public void testTransposedOrientations() {
+        for (int orientation = ExifInterface.ORIENTATION_NORMAL;
+             orientation <= ExifInterface.ORIENTATION_ROTATE_270; orientation++) {
+            assertEquals(orientation >= ExifInterface.ORIENTATION_TRANSPOSE, ImageUtil.isTransposed(orientation));
+        }
+    }
+
+    public void testDecodeAppliesRotation() throws Exception {
+        mFile = writeRotatedJpeg(ExifInterface.ORIENTATION_ROTATE_90);
+        assertEquals(ExifInterface.ORIENTATION_ROTATE_90,
+                ImageUtil.getExifOrientation(mFile.getAbsolutePath(), "image/jpeg"));
+
+        Bitmap bitmap = ImageUtil.decodeSampledBitmapFromFile(mFile.getAbsolutePath(), new DecodeSpec(1000, 1000));
+        assertNotNull(bitmap);
+        try {
+            // 顺时针旋转90度后宽高互换，原来的左半部分（红色）在上面
+            assertEquals(200, bitmap.getWidth());
+            assertEquals(400, bitmap.getHeight());
+            assertRed(bitmap.getPixel(100, 50));
+            assertBlue(bitmap.getPixel(100, 350));
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    public void testScaledDecodeAppliesRotation() throws Exception {
+        mFile = writeRotatedJpeg(ExifInterface.ORIENTATION_ROTATE_270);
+
+        // 目标尺寸针对旋转后的图片
+        Bitmap bitmap = ImageUtil.decodeSampledBitmapFromFile(mFile.getAbsolutePath(),
+                new DecodeSpec(100, 100).setSampleMode(DecodeSpec.SampleMode.EXACT));
+        assertNotNull(bitmap);
+        try {
+            assertEquals(50, bitmap.getWidth());
+            assertEquals(100, bitmap.getHeight());
+            // 逆时针旋转90度后原来的左半部分在下面
+            assertBlue(bitmap.getPixel(25, 10));
+            assertRed(bitmap.getPixel(25, 90));
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static void assertMaps(int orientation, float expectedX, float expectedY) {
+        Matrix matrix = ImageUtil.getOrientationMatrix(orientation, (int) WIDTH, (int) HEIGHT);
+        float[] point = {1, 0.5f};
+        matrix.mapPoints(point);
+        assertEquals("orientation " + orientation, expectedX, point[0], DELTA);
+        assertEquals("orientation " + orientation, expectedY, point[1], DELTA);
+    }
+
+    private static void assertRed(int color) {
+        assertTrue(Integer.toHexString(color), Color.red(color) > 200 && Color.blue(color) < 60);
+    }
+
+    private static void assertBlue(int color) {
+        assertTrue(Integer.toHexString(color), Color.blue(color) > 200 && Color.red(color) < 60);
+    }
+
+    /**
+     * 左半部分红色、右半部分蓝色的400x200 JPEG，并在EXIF中写入方向
+     */
+    private static File writeRotatedJpeg(int orientation) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888);
+        int[] row = new int[400];
+        for (int x = 0; x < row.length; x++) {
+            row[x] = x < 200 ? Color.RED : Color.BLUE;
+        }
+        for (int y = 0; y < 200; y++) {
+            bitmap.setPixels(row, 0, 400, 0, y, 400, 1);
+        }
+
+        File file = File.createTempFile("exif_orientation", ".jpg");
+        OutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 95, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+
+        ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+        exif.saveAttributes();
+        return file;
+    }
+}
@@ -0,0 +1,119 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import com.sun.tinker.sns.share.demo.FakeHttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 使用本地的假HTTP服务测试{@link HttpFetcher}的重定向、重试、解压和连接复用
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class HttpFetcherTest extends TestCase {
+    private FakeHttpServer mServer;
+    private HttpFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeHttpServer();
+        mServer.start();
+        // 退避时间很短，测试不需要等待
+        mFetcher = new HttpFetcher(2000, 2000, 3, 10, 4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testFollowsRedirect() throws Exception {
+        mServer.enqueue(302, "Location: /final\r\n", new byte[0]);
+        mServer.enqueue(200, "", "done".getBytes("UTF-8"));
+
+        HttpFetcher.Response response = mFetcher.get(mServer.url("/start"), null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("done", read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(2, mServer.getRequests().size());
+        assertTrue(mServer.getRequests().get(1).line.startsWith("GET /final "));
+    }
+
+    public void testRetriesServerErrors() throws Exception {
+        mServer.enqueue(503, "", "busy".getBytes("UTF-8"));
+        mServer.enqueue(503, "", "busy".getBytes("UTF-8"));
+        mServer.enqueue(200, "", "ok".getBytes("UTF-8"));
+
+        HttpFetcher.Response response = mFetcher.get(mServer.url("/image"), null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("ok", read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(3, mServer.getRequests().size());
+    }
+
+    public void testPostIsNotRetried() throws Exception {
+        mServer.enqueue(500, "", "error".getBytes("UTF-8"));
+
+        HttpFetcher.Response response = mFetcher.post(mServer.url("/token"), "text/plain",
+                "a=b".getBytes("UTF-8"));
+        try {
+            assertEquals(500, response.getCode());
+            assertEquals("error", read(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(1, mServer.getRequests().size());
+    }
+
+    public void testDecodesGzipBody() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write("compressed body".getBytes("UTF-8"));
+        gzip.close();
+        mServer.enqueue(200, "Content-Encoding: gzip\r\n", compressed.toByteArray());
+
+        HttpFetcher.Response response = mFetcher.get(mServer.url("/gzip"), null);
+        try {
+            assertEquals("compressed body", read(response.getBody()));
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testReusesConnection() throws Exception {
+        mServer.enqueue(200, "", "first".getBytes("UTF-8"));
+        mServer.enqueue(200, "", "second".getBytes("UTF-8"));
+
+        for (String expected : new String[]{"first", "second"}) {
+            HttpFetcher.Response response = mFetcher.get(mServer.url("/keep-alive"), null);
+            try {
+                assertEquals(expected, read(response.getBody()));
+            } finally {
+                response.close();
+            }
+        }
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toString("UTF-8");
+    }
+}
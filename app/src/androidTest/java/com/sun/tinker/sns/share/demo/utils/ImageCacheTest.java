@@ -0,0 +1,121 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import com.sun.tinker.sns.share.demo.FakeHttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 使用本地的假HTTP服务测试{@link ImageCache}的缓存命中和ETag/Last-Modified重新验证
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ImageCacheTest extends TestCase {
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    private FakeHttpServer mServer;
+    private File mCacheDir;
+    private ImageCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeHttpServer();
+        mServer.start();
+        mCacheDir = File.createTempFile("image_cache", "");
+        mCacheDir.delete();
+        mCache = new ImageCache(mCacheDir, 1024 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDir.delete();
+        super.tearDown();
+    }
+
+    public void testFreshEntryIsServedWithoutNetwork() throws Exception {
+        mServer.enqueue(200, "Cache-Control: max-age=60\r\n", "image-v1".getBytes("UTF-8"));
+        String url = mServer.url("/fresh.jpg");
+
+        File first = mCache.getFile(url);
+        File second = mCache.getFile(url);
+
+        assertEquals(first, second);
+        assertEquals("image-v1", read(second));
+        assertEquals(1, mServer.getRequests().size());
+    }
+
+    public void testStaleEntryIsRevalidated() throws Exception {
+        mServer.enqueue(200, "ETag: \"v1\"\r\nLast-Modified: " + LAST_MODIFIED + "\r\nCache-Control: max-age=0\r\n",
+                "image-v1".getBytes("UTF-8"));
+        mServer.enqueue(304, "Cache-Control: max-age=60\r\n", new byte[0]);
+        String url = mServer.url("/stale.jpg");
+
+        mCache.getFile(url);
+        File revalidated = mCache.getFile(url);
+
+        assertEquals("image-v1", read(revalidated));
+        assertEquals(2, mServer.getRequests().size());
+        FakeHttpServer.Request request = mServer.getRequests().get(1);
+        assertEquals("\"v1\"", request.getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, request.getHeader("If-Modified-Since"));
+
+        // 304带回的有效期生效，之后不再请求
+        mCache.getFile(url);
+        assertEquals(2, mServer.getRequests().size());
+    }
+
+    public void testChangedImageReplacesEntry() throws Exception {
+        mServer.enqueue(200, "ETag: \"v1\"\r\nCache-Control: max-age=0\r\n", "image-v1".getBytes("UTF-8"));
+        mServer.enqueue(200, "ETag: \"v2\"\r\nCache-Control: max-age=60\r\n", "image-v2".getBytes("UTF-8"));
+        String url = mServer.url("/changed.jpg");
+
+        mCache.getFile(url);
+        File replaced = mCache.getFile(url);
+
+        assertEquals("image-v2", read(replaced));
+        assertFalse(new File(mCacheDir, replaced.getName() + ".tmp").exists());
+    }
+
+    public void testFailedDownloadLeavesNoFiles() throws Exception {
+        mServer.enqueue(404, "", "missing".getBytes("UTF-8"));
+
+        try {
+            mCache.getFile(mServer.url("/missing.jpg"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // 预期的异常
+        }
+        String[] names = mCacheDir.list();
+        assertTrue(names == null || names.length == 0);
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = input.read(data, read, data.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return new String(data, 0, read, "UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+}
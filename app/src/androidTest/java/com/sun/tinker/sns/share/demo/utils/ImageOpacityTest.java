@@ -0,0 +1,92 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 测试{@link ImageUtil#isOpaque}根据文件头判断图片是否不透明
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ImageOpacityTest extends TestCase {
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_PALETTE = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    public void testJpegIsOpaque() throws Exception {
+        assertTrue(isOpaque(new byte[]{(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0}));
+    }
+
+    public void testPngColorType() throws Exception {
+        assertTrue(isOpaque(png(COLOR_TYPE_RGB, "tEXt", false)));
+        assertFalse(isOpaque(png(COLOR_TYPE_RGBA, null, false)));
+    }
+
+    public void testPngTransparencyChunk() throws Exception {
+        assertTrue(isOpaque(png(COLOR_TYPE_PALETTE, "PLTE", false)));
+        assertFalse(isOpaque(png(COLOR_TYPE_PALETTE, "PLTE", true)));
+    }
+
+    public void testWebp() throws Exception {
+        assertTrue(isOpaque(webp("VP8 ", 0, 0)));
+        assertTrue(isOpaque(webp("VP8L", 0x2f, 0)));
+        assertFalse(isOpaque(webp("VP8L", 0x2f, 0x10)));
+        assertTrue(isOpaque(webp("VP8X", 0, 0)));
+        assertFalse(isOpaque(webp("VP8X", 0x10, 0)));
+    }
+
+    public void testUnknownFormat() throws Exception {
+        assertFalse(isOpaque("GIF89a".getBytes("US-ASCII")));
+        assertFalse(isOpaque(new byte[0]));
+    }
+
+    private static boolean isOpaque(byte[] data) throws IOException {
+        return ImageUtil.isOpaque(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * 构造IHDR、一个可选的块、可选的tRNS和IDAT组成的PNG头部
+     */
+    private static byte[] png(int colorType, String extraChunk, boolean transparency) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        output.writeInt(13);
+        output.writeBytes("IHDR");
+        output.writeInt(100);
+        output.writeInt(50);
+        output.writeByte(8);
+        output.writeByte(colorType);
+        output.write(new byte[3]);
+        output.writeInt(0);
+        if (extraChunk != null) {
+            writeChunk(output, extraChunk, 12);
+        }
+        if (transparency) {
+            writeChunk(output, "tRNS", 1);
+        }
+        writeChunk(output, "IDAT", 4);
+        return bytes.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream output, String type, int length) throws IOException {
+        output.writeInt(length);
+        output.writeBytes(type);
+        output.write(new byte[length]);
+        output.writeInt(0);
+    }
+
+    private static byte[] webp(String chunk, int byte20, int byte24) throws IOException {
+        byte[] data = new byte[30];
+        System.arraycopy("RIFF".getBytes("US-ASCII"), 0, data, 0, 4);
+        System.arraycopy("WEBP".getBytes("US-ASCII"), 0, data, 8, 4);
+        System.arraycopy(chunk.getBytes("US-ASCII"), 0, data, 12, 4);
+        data[20] = (byte) byte20;
+        data[24] = (byte) byte24;
+        return data;
+    }
+}
@@ -0,0 +1,211 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.sun.tinker.sns.share.demo.BenchmarkStats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * ImageUtil解码、编码路径的基准测试
+ * <p>
+ * 在设备上生成JPEG/PNG/WEBP三种格式、多种分辨率的测试图片，分别统计每种输入下各个操作的吞吐量、
+ * p50/p99耗时以及每次操作在当前线程Java堆上分配的字节数（不包括图片像素占用的native内存），
+ * 结果输出到logcat，用于比较图片处理流程修改前后的差异
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ImageUtilBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "ImageUtilBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 10;
+    private static final int CALCULATE_ITERATIONS = 10000;
+
+    private static final int[][] RESOLUTIONS = {{640, 480}, {1920, 1080}, {4032, 3024}};
+    private static final Bitmap.CompressFormat[] FORMATS = {
+            Bitmap.CompressFormat.JPEG, Bitmap.CompressFormat.PNG, Bitmap.CompressFormat.WEBP
+    };
+
+    /**
+     * 解码的目标尺寸，与分享界面推荐的尺寸同一量级
+     */
+    private static final int REQ_WIDTH = 720;
+    private static final int REQ_HEIGHT = 1280;
+
+    private File mCorpusDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCorpusDir = new File(getInstrumentation().getTargetContext().getCacheDir(), "image_benchmark");
+        if (!mCorpusDir.isDirectory() && !mCorpusDir.mkdirs()) {
+            throw new IOException("Can not create " + mCorpusDir);
+        }
+    }
+
+    public void testDecodeSampledBitmapFromFile() throws Exception {
+        for (Bitmap.CompressFormat format : FORMATS) {
+            for (int[] resolution : RESOLUTIONS) {
+                final File file = corpusFile(format, resolution[0], resolution[1]);
+                run("decodeFile " + file.getName(), ITERATIONS, new Operation() {
+                    @Override
+                    public void run() {
+                        recycle(ImageUtil.decodeSampledBitmapFromFile(file.getAbsolutePath(), REQ_WIDTH,
+                                REQ_HEIGHT));
+                    }
+                });
+            }
+        }
+    }
+
+    public void testCalculateInSampleSize() throws Exception {
+        for (int[] resolution : RESOLUTIONS) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.outWidth = resolution[0];
+            options.outHeight = resolution[1];
+            run("calculateInSampleSize " + resolution[0] + "x" + resolution[1], CALCULATE_ITERATIONS,
+                    new Operation() {
+                        @Override
+                        public void run() {
+                            ImageUtil.calculateInSampleSize(options, REQ_WIDTH, REQ_HEIGHT);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * 对比默认解码和允许RGB_565时的格式、内存、重新压缩为JPEG后的大小以及像素的平均误差
+     */
+    public void testRgb565Report() throws Exception {
+        for (Bitmap.CompressFormat format : FORMATS) {
+            for (int[] resolution : RESOLUTIONS) {
+                String path = corpusFile(format, resolution[0], resolution[1]).getAbsolutePath();
+                Bitmap full = ImageUtil.decodeSampledBitmapFromFile(path, new DecodeSpec(REQ_WIDTH, REQ_HEIGHT));
+                Bitmap reduced = ImageUtil.decodeSampledBitmapFromFile(path,
+                        new DecodeSpec(REQ_WIDTH, REQ_HEIGHT).setRgb565Allowed(true));
+                try {
+                    Log.i(TAG, String.format("rgb565 %s: %s %d bytes, jpeg %d bytes -> %s %d bytes, jpeg %d bytes,"
+                                    + " mean error %.2f", new File(path).getName(), full.getConfig(),
+                            full.getByteCount(), jpegSize(full), reduced.getConfig(), reduced.getByteCount(),
+                            jpegSize(reduced), meanError(full, reduced)));
+                } finally {
+                    full.recycle();
+                    reduced.recycle();
+                }
+            }
+        }
+    }
+
+    private static int jpegSize(Bitmap bitmap) {
+        return ImageUtil.encode(bitmap, Bitmap.CompressFormat.JPEG, 85, new ByteArrayOutputStream());
+    }
+
+    /**
+     * 每个颜色通道的平均绝对误差，0到255
+     */
+    private static double meanError(Bitmap a, Bitmap b) {
+        int width = Math.min(a.getWidth(), b.getWidth());
+        int height = Math.min(a.getHeight(), b.getHeight());
+        int[] rowA = new int[width];
+        int[] rowB = new int[width];
+        long total = 0;
+        for (int y = 0; y < height; y++) {
+            a.getPixels(rowA, 0, width, 0, y, width, 1);
+            b.getPixels(rowB, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((rowA[x] >> shift) & 0xff) - ((rowB[x] >> shift) & 0xff));
+                }
+            }
+        }
+        return (double) total / ((long) width * height * 3);
+    }
+
+    private void run(String name, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        BenchmarkStats latency = new BenchmarkStats(name + " (us)");
+        long totalNanos = 0;
+        long allocatedBytes = 0;
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                Debug.resetThreadAllocSize();
+                long start = System.nanoTime();
+                operation.run();
+                long elapsed = System.nanoTime() - start;
+                allocatedBytes += Debug.getThreadAllocSize();
+                totalNanos += elapsed;
+                latency.add(elapsed / 1000);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        double opsPerSecond = totalNanos > 0 ? iterations * 1e9 / totalNanos : 0;
+        Log.i(TAG, latency + String.format(", %.1f ops/s, %d bytes/op", opsPerSecond,
+                allocatedBytes / iterations));
+    }
+
+    /**
+     * 获取测试图片，不存在时生成
+     */
+    private File corpusFile(Bitmap.CompressFormat format, int width, int height) throws IOException {
+        File file = new File(mCorpusDir, width + "x" + height + "." + format.name().toLowerCase());
+        if (file.isFile() && file.length() > 0) {
+            return file;
+        }
+
+        Bitmap bitmap = generate(width, height);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(format, 90, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    /**
+     * 生成带渐变和噪点的图片，压缩率接近照片，纯色图片会让编解码耗时失真
+     */
+    private static Bitmap generate(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(width * 31 + height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = (x * 255 / width + noise) & 0xff;
+                int g = (y * 255 / height + noise) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + noise) & 0xff;
+                row[x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    private static void recycle(Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,168 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试{@link RenditionCache}的缓存命中、按内容寻址、直接使用满足规格的原图以及超出大小后的淘汰
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class RenditionCacheTest extends TestCase {
+    private static final RenditionProfile THUMB_PROFILE = new RenditionProfile("test_thumb", 150,
+            Bitmap.CompressFormat.JPEG, 90, 8 * 1024);
+    private static final RenditionProfile IMAGE_PROFILE = new RenditionProfile("test_image", 1920,
+            Bitmap.CompressFormat.JPEG, 90, RenditionProfile.NO_BYTE_LIMIT);
+    private static final long MAX_CACHE_BYTES = 10 * 1024 * 1024;
+
+    private File mDir;
+    private File mCacheDir;
+    private BitmapPool mPool;
+    private final AtomicInteger mCreated = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("rendition_cache", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mCacheDir = new File(mDir, "cache");
+        mPool = new BitmapPool(4 * 1024 * 1024);
+        RenditionCache.setListener(new RenditionCache.Listener() {
+            @Override
+            public void onRenditionCreated(RenditionProfile profile, long decodeTime,
+                                           ThumbnailEncoder.Result result) {
+                mCreated.incrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RenditionCache.setListener(null);
+        mPool.clear();
+        delete(mDir);
+        super.tearDown();
+    }
+
+    public void testSecondRequestIsServedFromCache() throws Exception {
+        RenditionCache cache = new RenditionCache(mCacheDir, MAX_CACHE_BYTES, mPool);
+        File image = writeJpeg("source.jpg", 600, 400, 1);
+
+        File first = cache.getFile(RenditionCache.Source.fromFile(image), THUMB_PROFILE);
+        File second = cache.getFile(RenditionCache.Source.fromFile(image), THUMB_PROFILE);
+
+        assertEquals(first, second);
+        assertTrue(first.length() > 0 && first.length() <= THUMB_PROFILE.maxBytes);
+        assertEquals(1, mCreated.get());
+    }
+
+    public void testSameContentSharesRendition() throws Exception {
+        RenditionCache cache = new RenditionCache(mCacheDir, MAX_CACHE_BYTES, mPool);
+        File image = writeJpeg("source.jpg", 600, 400, 1);
+        File copy = writeJpeg("copy.jpg", 600, 400, 1);
+
+        File first = cache.getFile(RenditionCache.Source.fromFile(image), THUMB_PROFILE);
+        File second = cache.getFile(RenditionCache.Source.fromFile(copy), THUMB_PROFILE);
+
+        assertEquals(first, second);
+        assertEquals(1, mCreated.get());
+    }
+
+    public void testProfilesAreCachedSeparately() throws Exception {
+        RenditionCache cache = new RenditionCache(mCacheDir, MAX_CACHE_BYTES, mPool);
+        RenditionCache.Source source = RenditionCache.Source.fromFile(writeJpeg("source.jpg", 600, 400, 1));
+        try {
+            File thumb = cache.getFile(source, THUMB_PROFILE);
+            File smaller = cache.getFile(source, THUMB_PROFILE.withMaxBytes(4 * 1024));
+
+            assertFalse(thumb.equals(smaller));
+            assertEquals(2, mCreated.get());
+        } finally {
+            source.release();
+        }
+    }
+
+    public void testSatisfyingSourceIsUsedDirectly() throws Exception {
+        RenditionCache cache = new RenditionCache(mCacheDir, MAX_CACHE_BYTES, mPool);
+        File image = writeJpeg("source.jpg", 600, 400, 1);
+        RenditionCache.Source source = RenditionCache.Source.fromFile(image);
+
+        assertEquals(image, cache.findSatisfyingSource(source, IMAGE_PROFILE));
+        assertNull(cache.findSatisfyingSource(source, THUMB_PROFILE));
+        assertEquals(image.length(), cache.getBytes(source, IMAGE_PROFILE).length);
+        assertEquals(0, mCreated.get());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        mCacheDir.mkdirs();
+        long now = System.currentTimeMillis();
+        File oldest = filler("oldest", now - 120 * 1000);
+        File recent = filler("recent", now - 60 * 1000);
+        RenditionCache cache = new RenditionCache(mCacheDir, oldest.length() + recent.length(), mPool);
+
+        File rendition = cache.getFile(RenditionCache.Source.fromFile(writeJpeg("source.jpg", 600, 400, 1)),
+                THUMB_PROFILE);
+
+        assertFalse(oldest.exists());
+        assertTrue(recent.exists());
+        assertTrue(rendition.exists());
+    }
+
+    /**
+     * 缓存目录中的占位文件，大小足够容纳一张缩略图
+     */
+    private File filler(String name, long lastModified) throws IOException {
+        File file = new File(mCacheDir, name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[THUMB_PROFILE.maxBytes]);
+        } finally {
+            output.close();
+        }
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    private File writeJpeg(String name, int width, int height, int seed) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(seed);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                row[x] = 0xff000000 | (((x * 255 / width + noise) & 0xff) << 16)
+                        | (((y * 255 / height + noise) & 0xff) << 8) | (noise * 4);
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        File file = new File(mDir, name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
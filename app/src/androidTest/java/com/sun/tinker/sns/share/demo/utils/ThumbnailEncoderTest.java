@@ -0,0 +1,136 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 测试{@link ThumbnailEncoder}的尺寸缩放和按字节数限制查找压缩质量
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ThumbnailEncoderTest extends TestCase {
+    private static final int MAX_SIZE = 200;
+
+    private Bitmap mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = generate(1000, 800);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.recycle();
+        super.tearDown();
+    }
+
+    public void testGenerousBudgetNeedsOnePass() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ThumbnailEncoder.Result result = new ThumbnailEncoder(MAX_SIZE, 1024 * 1024,
+                Bitmap.CompressFormat.JPEG, null).encode(mSource, output);
+
+        assertEquals(1, result.passes);
+        assertEquals(90, result.quality);
+        // 保持原图宽高比
+        assertEquals(200, result.width);
+        assertEquals(160, result.height);
+        assertDecodes(output.toByteArray(), result);
+        assertFalse(mSource.isRecycled());
+    }
+
+    public void testTightBudgetLowersQuality() throws Exception {
+        int maxBytes = 8 * 1024;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ThumbnailEncoder.Result result = new ThumbnailEncoder(MAX_SIZE, maxBytes,
+                Bitmap.CompressFormat.JPEG, null).encode(mSource, output);
+
+        assertTrue(result.size <= maxBytes);
+        // 最高质量超出限制后继续二分查找，必要时缩小尺寸
+        assertTrue(result.passes > 1);
+        assertTrue(result.quality < 90 || result.width < 200);
+        assertDecodes(output.toByteArray(), result);
+    }
+
+    public void testImpossibleBudgetFailsWithoutOutput() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            new ThumbnailEncoder(MAX_SIZE, 10, Bitmap.CompressFormat.JPEG, null).encode(mSource, output);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // 预期的异常
+        }
+        assertEquals(0, output.size());
+    }
+
+    public void testPngWithoutLimit() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ThumbnailEncoder.Result result = new ThumbnailEncoder(MAX_SIZE, RenditionProfile.NO_BYTE_LIMIT,
+                Bitmap.CompressFormat.PNG, null).encode(mSource, output);
+
+        assertEquals(1, result.passes);
+        byte[] data = output.toByteArray();
+        assertEquals(result.size, data.length);
+        assertEquals((byte) 0x89, data[0]);
+        assertEquals('P', data[1]);
+    }
+
+    public void testPngRejectsByteLimit() {
+        try {
+            new ThumbnailEncoder(MAX_SIZE, 1024, Bitmap.CompressFormat.PNG, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // 预期的异常
+        }
+    }
+
+    public void testPooledThumbIsReturned() throws Exception {
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        try {
+            new ThumbnailEncoder(MAX_SIZE, 8 * 1024, Bitmap.CompressFormat.JPEG, pool)
+                    .encode(mSource, new ByteArrayOutputStream());
+
+            assertTrue(pool.getCurrentBytes() > 0);
+        } finally {
+            pool.clear();
+        }
+    }
+
+    private static void assertDecodes(byte[] data, ThumbnailEncoder.Result result) {
+        assertEquals(result.size, data.length);
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, null);
+        assertNotNull(decoded);
+        try {
+            assertEquals(result.width, decoded.getWidth());
+            assertEquals(result.height, decoded.getHeight());
+        } finally {
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * 生成带渐变和噪点的图片，压缩率接近照片
+     */
+    private static Bitmap generate(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(width * 31 + height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = (x * 255 / width + noise) & 0xff;
+                int g = (y * 255 / height + noise) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + noise) & 0xff;
+                row[x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+}
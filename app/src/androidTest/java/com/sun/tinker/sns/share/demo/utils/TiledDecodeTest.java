@@ -0,0 +1,123 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 测试超大图片的分块解码：结果按目标尺寸精确缩放，条带之间没有缝隙
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class TiledDecodeTest extends TestCase {
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1500;
+    private static final int REQ_SIZE = 600;
+    private static final long TILE_BYTES = 64 * 1024;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("tiled_decode", ".png");
+        writeTwoBands(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testTiledDecodeScalesExactly() {
+        Bitmap bitmap = decode(TILE_BYTES);
+        try {
+            // 按2的幂采样只能得到1000x750，分块解码直接缩放到目标尺寸
+            assertTrue(Math.abs(bitmap.getWidth() - REQ_SIZE) <= 1);
+            assertTrue(Math.abs(bitmap.getHeight() - REQ_SIZE * HEIGHT / WIDTH) <= 1);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    public void testStripsLeaveNoGaps() {
+        Bitmap bitmap = decode(TILE_BYTES);
+        try {
+            int x = bitmap.getWidth() / 2;
+            for (int y = 0; y < bitmap.getHeight(); y++) {
+                assertEquals("row " + y, 255, Color.alpha(bitmap.getPixel(x, y)));
+            }
+            assertEquals(Color.RED, bitmap.getPixel(x, bitmap.getHeight() / 10));
+            assertEquals(Color.BLUE, bitmap.getPixel(x, bitmap.getHeight() * 9 / 10));
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    public void testSmallImageIsDecodedWhole() {
+        // 采样后的整图没有超过条带上限时不分块，结果与普通的2的幂采样相同
+        Bitmap bitmap = decode(64 * 1024 * 1024);
+        try {
+            assertEquals(WIDTH / 2, bitmap.getWidth());
+            assertEquals(HEIGHT / 2, bitmap.getHeight());
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    public void testTiledDecodeWithPool() {
+        BitmapPool pool = new BitmapPool(8 * 1024 * 1024);
+        try {
+            Bitmap bitmap = ImageUtil.decodeSampledBitmapFromFile(mFile.getAbsolutePath(), spec(TILE_BYTES)
+                    .setBitmapPool(pool));
+            assertNotNull(bitmap);
+            pool.put(bitmap);
+
+            // 第二次解码复用归还的结果图片
+            Bitmap reused = ImageUtil.decodeSampledBitmapFromFile(mFile.getAbsolutePath(), spec(TILE_BYTES)
+                    .setBitmapPool(pool));
+            assertSame(bitmap, reused);
+            assertEquals(Color.RED, reused.getPixel(reused.getWidth() / 2, 0));
+        } finally {
+            pool.clear();
+        }
+    }
+
+    private Bitmap decode(long tileBytes) {
+        Bitmap bitmap = ImageUtil.decodeSampledBitmapFromFile(mFile.getAbsolutePath(), spec(tileBytes));
+        assertNotNull(bitmap);
+        return bitmap;
+    }
+
+    private static DecodeSpec spec(long tileBytes) {
+        return new DecodeSpec(REQ_SIZE, REQ_SIZE).setSampleMode(DecodeSpec.SampleMode.POWER_OF_TWO)
+                .setTileBytes(tileBytes);
+    }
+
+    /**
+     * 上半部分红色、下半部分蓝色的PNG，无损编码便于比较像素
+     */
+    private static void writeTwoBands(File file) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] row = new int[WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(row, y < HEIGHT / 2 ? Color.RED : Color.BLUE);
+            bitmap.setPixels(row, 0, WIDTH, 0, y, WIDTH, 1);
+        }
+        OutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+    }
+}
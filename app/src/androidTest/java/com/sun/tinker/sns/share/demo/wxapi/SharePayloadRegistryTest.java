@@ -0,0 +1,81 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import junit.framework.TestCase;
+
+/**
+ * 测试{@link SharePayloadRegistry}中token的登记、取出、移除和过期
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class SharePayloadRegistryTest extends TestCase {
+    private static final long SHORT_TTL_MILLIS = 50;
+
+    public void testResolveReturnsSamePayload() {
+        Object payload = new Object();
+        String token = SharePayloadRegistry.register(payload);
+        try {
+            assertSame(payload, SharePayloadRegistry.resolve(token, Object.class));
+            // 分享界面重建后仍然可以通过同一个token取出
+            assertSame(payload, SharePayloadRegistry.resolve(token, Object.class));
+        } finally {
+            SharePayloadRegistry.remove(token);
+        }
+    }
+
+    public void testTokensAreUnique() {
+        String first = SharePayloadRegistry.register("first");
+        String second = SharePayloadRegistry.register("second");
+        try {
+            assertFalse(first.equals(second));
+            assertEquals("first", SharePayloadRegistry.resolve(first, String.class));
+            assertEquals("second", SharePayloadRegistry.resolve(second, String.class));
+        } finally {
+            SharePayloadRegistry.remove(first);
+            SharePayloadRegistry.remove(second);
+        }
+    }
+
+    public void testWrongTypeResolvesToNull() {
+        String token = SharePayloadRegistry.register("text");
+        try {
+            assertNull(SharePayloadRegistry.resolve(token, Integer.class));
+        } finally {
+            SharePayloadRegistry.remove(token);
+        }
+    }
+
+    public void testRemovedTokenResolvesToNull() {
+        String token = SharePayloadRegistry.register("text");
+        SharePayloadRegistry.remove(token);
+
+        assertNull(SharePayloadRegistry.resolve(token, String.class));
+        assertNull(SharePayloadRegistry.resolve(null, String.class));
+        assertNull(SharePayloadRegistry.resolve("unknown", String.class));
+    }
+
+    public void testUnclaimedPayloadExpires() {
+        String token = SharePayloadRegistry.register("text", 0);
+        // 下一次登记时清理过期的内容
+        String other = SharePayloadRegistry.register("other");
+        try {
+            assertNull(SharePayloadRegistry.resolve(token, String.class));
+        } finally {
+            SharePayloadRegistry.remove(other);
+        }
+    }
+
+    public void testClaimedPayloadDoesNotExpire() throws Exception {
+        String token = SharePayloadRegistry.register("text", SHORT_TTL_MILLIS);
+        assertEquals("text", SharePayloadRegistry.resolve(token, String.class));
+
+        // 已经取出的内容超过有效期后不会被清理，直到分享界面移除
+        Thread.sleep(SHORT_TTL_MILLIS * 2);
+        String other = SharePayloadRegistry.register("other");
+        try {
+            assertEquals("text", SharePayloadRegistry.resolve(token, String.class));
+        } finally {
+            SharePayloadRegistry.remove(token);
+            SharePayloadRegistry.remove(other);
+        }
+    }
+}
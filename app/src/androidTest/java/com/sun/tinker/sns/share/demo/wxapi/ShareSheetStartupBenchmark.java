@@ -0,0 +1,149 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.sun.tinker.sns.share.demo.BenchmarkStats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分享界面启动耗时基准测试
+ * <p>
+ * 与{@link BaseShareUtil#jumpToShareActivity(android.content.Context, String)}一样带上跳转时间启动
+ * {@link WXEntryActivity}，统计到第一帧绘制的总耗时以及各阶段耗时。只输出统计结果，不因设备快慢失败，
+ * 中位数超出预算时输出警告，可以配合systrace查看各阶段的section。分享的图片是本地生成的文件，不依赖网络
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ShareSheetStartupBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "StartupBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 20;
+
+    /**
+     * 从跳转到可以交互的耗时中位数的参考预算，只用于输出警告
+     */
+    private static final long TOTAL_BUDGET_MILLIS = 300;
+    private static final long FIRST_FRAME_TIMEOUT_MILLIS = 5000;
+    private static final int IMAGE_SIZE = 1080;
+
+    private static final String[] PHASES = {
+            WXEntryActivity.PHASE_SET_CONTENT_VIEW,
+            WXEntryActivity.PHASE_SDK_INIT,
+            WXEntryActivity.PHASE_INIT_UI,
+            WXEntryActivity.PHASE_INIT_DATA,
+            WXEntryActivity.PHASE_FIRST_FRAME
+    };
+
+    private File mImageFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mImageFile = createImage(new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "startup_benchmark.jpg"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mImageFile.delete();
+        super.tearDown();
+    }
+
+    public void testShareSheetStartup() throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            launchOnce();
+        }
+
+        BenchmarkStats total = new BenchmarkStats("total");
+        Map<String, BenchmarkStats> phases = new LinkedHashMap<String, BenchmarkStats>();
+        for (String phase : PHASES) {
+            phases.put(phase, new BenchmarkStats(phase));
+        }
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            StartupTraceSnapshot snapshot = launchOnce();
+            total.add(snapshot.total);
+            for (String phase : PHASES) {
+                phases.get(phase).add(snapshot.phases.get(phase));
+            }
+        }
+
+        Log.i(TAG, total.toString());
+        for (BenchmarkStats stats : phases.values()) {
+            Log.i(TAG, stats.toString());
+        }
+        if (total.getMedian() > TOTAL_BUDGET_MILLIS) {
+            Log.w(TAG, "Share sheet startup median exceeds the " + TOTAL_BUDGET_MILLIS + "ms budget: " + total);
+        }
+    }
+
+    private StartupTraceSnapshot launchOnce() throws Exception {
+        Instrumentation instrumentation = getInstrumentation();
+        Intent intent = new Intent(instrumentation.getTargetContext(), WXEntryActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        intent.putExtra(BaseShareUtil.EXTRA_IMAGE_URL, mImageFile.getAbsolutePath());
+        intent.putExtra(BaseShareUtil.EXTRA_START_TIME, SystemClock.elapsedRealtime());
+
+        final WXEntryActivity activity = (WXEntryActivity) instrumentation.startActivitySync(intent);
+        try {
+            final StartupTraceSnapshot snapshot = new StartupTraceSnapshot();
+            long deadline = SystemClock.elapsedRealtime() + FIRST_FRAME_TIMEOUT_MILLIS;
+            while (snapshot.total < 0) {
+                assertTrue("First frame was not drawn in time.", SystemClock.elapsedRealtime() < deadline);
+                instrumentation.waitForIdleSync();
+                instrumentation.runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        snapshot.total = activity.getStartupTrace().getTotalMillis();
+                        snapshot.phases.putAll(activity.getStartupTrace().getPhases());
+                    }
+                });
+            }
+            return snapshot;
+        } finally {
+            finish(instrumentation, activity);
+        }
+    }
+
+    private static void finish(Instrumentation instrumentation, final Activity activity) {
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.finish();
+            }
+        });
+        instrumentation.waitForIdleSync();
+    }
+
+    private static File createImage(File file) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GRAY);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static final class StartupTraceSnapshot {
+        long total = -1;
+        final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    }
+}
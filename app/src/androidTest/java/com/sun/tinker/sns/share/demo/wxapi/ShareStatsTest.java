@@ -0,0 +1,71 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import junit.framework.TestCase;
+
+/**
+ * 测试{@link ShareStats}的计数和耗时分布，包括多线程同时记录
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ShareStatsTest extends TestCase {
+
+    public void testCountsPerPlatform() {
+        ShareStats stats = new ShareStats();
+        stats.onShareStarted(SharePlatform.WEIBO);
+        stats.onShareStarted(SharePlatform.WEIBO);
+        stats.onShareSucceeded(SharePlatform.WEIBO, 120);
+        stats.onShareFailed(SharePlatform.WEIBO, 80, "failed");
+        stats.onShareCancelled(SharePlatform.QQ, 10);
+
+        assertEquals(2, stats.getCount(SharePlatform.WEIBO, ShareStats.Counter.ATTEMPT));
+        assertEquals(1, stats.getCount(SharePlatform.WEIBO, ShareStats.Counter.SUCCESS));
+        assertEquals(1, stats.getCount(SharePlatform.WEIBO, ShareStats.Counter.ERROR));
+        assertEquals(0, stats.getCount(SharePlatform.WEIBO, ShareStats.Counter.CANCEL));
+        assertEquals(1, stats.getCount(SharePlatform.QQ, ShareStats.Counter.CANCEL));
+        assertEquals(0, stats.getCount(SharePlatform.WECHAT_FRIENDS, ShareStats.Counter.ATTEMPT));
+        assertEquals(2, stats.getLatency(SharePlatform.WEIBO).getCount());
+        assertEquals(100, stats.getLatency(SharePlatform.WEIBO).getMean());
+    }
+
+    public void testPercentilesUseBucketBounds() {
+        ShareStats.Histogram histogram = new ShareStats().getDecodeTimes();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 0; i < 9; i++) {
+            histogram.record(40);
+        }
+        histogram.record(70000);
+
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(50, histogram.getPercentile(90));
+        // 超出最后一个区间时返回最大值
+        assertEquals(70000, histogram.getPercentile(100));
+        assertEquals(70000, histogram.getMax());
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final ShareStats stats = new ShareStats();
+        final int perThread = 10000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        stats.onShareStarted(SharePlatform.WECHAT_TIMELINE);
+                        stats.onImageEncoded("thumb", j % 100, 10);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long total = (long) perThread * threads.length;
+        assertEquals(total, stats.getCount(SharePlatform.WECHAT_TIMELINE, ShareStats.Counter.ATTEMPT));
+        assertEquals(total, stats.getEncodeTimes().getCount());
+        assertEquals(total * 10, stats.getEncodedBytes());
+        assertEquals(99, stats.getEncodeTimes().getMax());
+    }
+}
@@ -0,0 +1,78 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 测试{@link ShareTransactions}的transaction唯一性和请求的对应关系
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class ShareTransactionsTest extends TestCase {
+
+    public void testTransactionsAreUniqueAcrossThreads() throws InterruptedException {
+        final Set<String> transactions = Collections.synchronizedSet(new HashSet<String>());
+        final int perThread = 5000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        transactions.add(ShareTransactions.newTransaction("img"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(perThread * threads.length, transactions.size());
+    }
+
+    public void testResponseMatchesOriginatingRequest() {
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        long now = SystemClock.elapsedRealtime();
+        String firstTransaction = ShareTransactions.register("img", SharePlatform.WECHAT_FRIENDS, now, first);
+        String secondTransaction = ShareTransactions.register("img", SharePlatform.WECHAT_TIMELINE, now, second);
+
+        ShareTransactions.Request request = ShareTransactions.take(secondTransaction);
+        assertNotNull(request);
+        assertSame(second, request.callback);
+        assertEquals(SharePlatform.WECHAT_TIMELINE, request.platform);
+        // 每个请求只能取出一次
+        assertNull(ShareTransactions.take(secondTransaction));
+
+        request = ShareTransactions.take(firstTransaction);
+        assertNotNull(request);
+        assertSame(first, request.callback);
+        assertNull(ShareTransactions.take(null));
+    }
+
+    public void testExpiredRequestsAreEvicted() {
+        long expired = SystemClock.elapsedRealtime() - ShareTransactions.TTL_MILLIS - 1;
+        String transaction = ShareTransactions.register("text", SharePlatform.WEIBO, expired, new RecordingCallback());
+        assertNull(ShareTransactions.take(transaction));
+    }
+
+    private static final class RecordingCallback implements BaseShareUtil.Callback {
+        @Override
+        public void onError(String errorMsg) {
+        }
+
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onCancel() {
+        }
+    }
+}
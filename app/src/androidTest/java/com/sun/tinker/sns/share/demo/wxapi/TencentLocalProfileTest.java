@@ -0,0 +1,107 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.InstrumentationTestCase;
+
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+import com.sun.tinker.sns.share.demo.utils.RenditionProfile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 测试QQ本地图片按是否透明选择规格，透明图片保存为PNG并保留透明像素
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class TencentLocalProfileTest extends InstrumentationTestCase {
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(getInstrumentation().getTargetContext().getCacheDir(), "tencent_profile_test");
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can not create " + mDir);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testAlphaProfileIsUnlimitedPng() {
+        assertEquals(Bitmap.CompressFormat.PNG, TencentShareUtil.LOCAL_ALPHA_PROFILE.format);
+        assertFalse(TencentShareUtil.LOCAL_ALPHA_PROFILE.hasByteLimit());
+        assertEquals(Bitmap.CompressFormat.JPEG, TencentShareUtil.LOCAL_PROFILE.format);
+    }
+
+    public void testPngProfileRejectsByteLimit() {
+        try {
+            new RenditionProfile("png", 100, Bitmap.CompressFormat.PNG, 100, 1024);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // 预期的异常
+        }
+    }
+
+    public void testTransparentImageUsesAlphaProfile() throws Exception {
+        RenditionCache.Source source = RenditionCache.Source.fromFile(
+                write("transparent.png", Bitmap.CompressFormat.PNG, Color.TRANSPARENT));
+
+        assertSame(TencentShareUtil.LOCAL_ALPHA_PROFILE, TencentShareUtil.getLocalProfile(source));
+    }
+
+    public void testOpaqueImageUsesJpegProfile() throws Exception {
+        RenditionCache.Source source = RenditionCache.Source.fromFile(
+                write("opaque.jpg", Bitmap.CompressFormat.JPEG, Color.GRAY));
+
+        assertSame(TencentShareUtil.LOCAL_PROFILE, TencentShareUtil.getLocalProfile(source));
+    }
+
+    public void testTransparentRenditionKeepsAlpha() throws Exception {
+        RenditionCache.Source source = RenditionCache.Source.fromFile(
+                write("transparent.png", Bitmap.CompressFormat.PNG, Color.TRANSPARENT));
+        File rendition = RenditionCache.getInstance(getInstrumentation().getTargetContext())
+                .getFile(source, TencentShareUtil.LOCAL_ALPHA_PROFILE);
+        try {
+            assertTrue(rendition.getName().endsWith(".png"));
+            Bitmap decoded = BitmapFactory.decodeFile(rendition.getAbsolutePath());
+            assertNotNull(decoded);
+            try {
+                assertEquals(0, Color.alpha(decoded.getPixel(0, 0)));
+            } finally {
+                decoded.recycle();
+            }
+        } finally {
+            source.release();
+            rendition.delete();
+        }
+    }
+
+    private File write(String name, Bitmap.CompressFormat format, int color) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        File file = new File(mDir, name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(format, 100, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+}
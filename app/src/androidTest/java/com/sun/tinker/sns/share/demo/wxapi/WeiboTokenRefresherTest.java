@@ -0,0 +1,116 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.test.InstrumentationTestCase;
+
+import com.sina.weibo.sdk.auth.Oauth2AccessToken;
+import com.sun.tinker.sns.share.demo.FakeHttpServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使用本地的假OAuth接口测试{@link WeiboTokenRefresher}
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public class WeiboTokenRefresherTest extends InstrumentationTestCase {
+    /**
+     * 测试使用独立的SharedPreferences，不会清除应用中真实的微博Token
+     */
+    private static final String TEST_PREFERENCES_NAME = "weibo_token_refresher_test";
+
+    private WeiboTokenStore mStore;
+    private FakeHttpServer mServer;
+    private final List<WeiboTokenRefresher> mRefreshers = new ArrayList<WeiboTokenRefresher>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = new WeiboTokenStore(getInstrumentation().getTargetContext(), TEST_PREFERENCES_NAME);
+        mStore.clear();
+        mServer = new FakeHttpServer();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // 每个实例都有自己的刷新线程，测试结束时全部结束
+        for (WeiboTokenRefresher refresher : mRefreshers) {
+            refresher.shutdown();
+        }
+        mRefreshers.clear();
+        mServer.close();
+        mStore.clear();
+        super.tearDown();
+    }
+
+    public void testRefreshReplacesExpiringToken() throws Exception {
+        respond(200, "{\"access_token\":\"new-token\",\"expires_in\":\"86400\",\"uid\":\"42\"}");
+        Oauth2AccessToken token = expiringToken();
+        mStore.setToken(token);
+
+        assertTrue(newRefresher().refresh(token));
+
+        Oauth2AccessToken refreshed = mStore.getValidToken();
+        assertNotNull(refreshed);
+        assertEquals("new-token", refreshed.getToken());
+        // 响应中没有refresh_token时沿用原来的
+        assertEquals("refresh-token", refreshed.getRefreshToken());
+        assertFalse(mStore.isExpiringWithin(WeiboTokenRefresher.REFRESH_AHEAD_MILLIS));
+        String request = mServer.getRequests().get(0).body;
+        assertTrue(request.contains("grant_type=refresh_token"));
+        assertTrue(request.contains("refresh_token=refresh-token"));
+    }
+
+    public void testFailedRefreshKeepsToken() throws Exception {
+        respond(500, "{\"error\":\"expired_token\"}");
+        Oauth2AccessToken token = expiringToken();
+        mStore.setToken(token);
+
+        assertFalse(newRefresher().refresh(token));
+        assertEquals("old-token", mStore.getToken().getToken());
+    }
+
+    public void testBackoffIsJitteredAndCapped() {
+        WeiboTokenRefresher refresher = newRefresher();
+        for (int attempt = 1; attempt <= 20; attempt++) {
+            long expected = Math.min(WeiboTokenRefresher.MAX_BACKOFF_MILLIS,
+                    WeiboTokenRefresher.INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+            long backoff = refresher.getBackoffMillis(attempt);
+            assertTrue(backoff >= expected / 2 && backoff <= expected);
+        }
+    }
+
+    public void testEmptySecretDisablesRefresh() {
+        mStore.setToken(expiringToken());
+        WeiboTokenRefresher refresher = newRefresher("");
+
+        refresher.start();
+
+        assertFalse(refresher.isScheduled());
+        assertEquals(0, mServer.getRequests().size());
+    }
+
+    private WeiboTokenRefresher newRefresher() {
+        return newRefresher("app-secret");
+    }
+
+    private WeiboTokenRefresher newRefresher(String appSecret) {
+        WeiboTokenRefresher refresher = new WeiboTokenRefresher(mStore, mServer.url("/oauth2/access_token"),
+                "app-key", appSecret, "");
+        mRefreshers.add(refresher);
+        return refresher;
+    }
+
+    private void respond(int code, String body) throws IOException {
+        mServer.enqueue(code, "Content-Type: application/json\r\n", body.getBytes("UTF-8"));
+    }
+
+    private static Oauth2AccessToken expiringToken() {
+        Oauth2AccessToken token = new Oauth2AccessToken("old-token", "600");
+        token.setUid("42");
+        token.setRefreshToken("refresh-token");
+        return token;
+    }
+}
@@ -1,44 +1,84 @@
 package com.sun.tinker.sns.share.demo;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
 import android.view.View;
 
+import com.sun.tinker.sns.share.demo.utils.AssetMaterializer;
+import com.sun.tinker.sns.share.demo.utils.StartupTrace;
 import com.sun.tinker.sns.share.demo.wxapi.BaseShareUtil;
+import com.sun.tinker.sns.share.demo.wxapi.PlatformClients;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 
 public class MainActivity extends ActionBarActivity {
+    private static final String TAG = "MainActivity";
+
+    private static final String PHASE_SET_CONTENT_VIEW = "setContentView";
+    private static final String PHASE_SDK_PREWARM = "sdkPrewarm";
+    private static final String PHASE_INIT_UI = "initUi";
+    /**
+     * 从onCreate结束到分享图片可用
+     */
+    private static final String PHASE_SHARE_IMAGE = "shareImage";
 
     private String mShareImageUrl = null;
+    private View mShareButton;
+    private AsyncTask<?, ?, ?> mMaterializeTask;
+    private StartupTrace mStartupTrace;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mStartupTrace = new StartupTrace(TAG, SystemClock.elapsedRealtime());
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
 
-        Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.mipmap.share);
-        File temp = new File(getApplicationContext().getExternalCacheDir(), "share.jpg");
-        try {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, new FileOutputStream(temp));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+        mStartupTrace.beginPhase(PHASE_SET_CONTENT_VIEW);
+        setContentView(R.layout.activity_main);
 
-        if (temp.exists()) {
-            mShareImageUrl = temp.getAbsolutePath();
-        }
+        // 提前在后台初始化各平台SDK，打开分享界面时不再等待
+        mStartupTrace.beginPhase(PHASE_SDK_PREWARM);
+        PlatformClients.getInstance(this).prewarm();
 
-        findViewById(R.id.share).setOnClickListener(new View.OnClickListener() {
+        mStartupTrace.beginPhase(PHASE_INIT_UI);
+        mShareButton = findViewById(R.id.share);
+        mShareButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 BaseShareUtil.jumpToShareActivity(MainActivity.this, mShareImageUrl);
             }
         });
+        // 分享图片准备好之前不能分享
+        mShareButton.setEnabled(false);
+
+        // 分享图片只在首次启动或者升级后写入，并且不在主线程中进行
+        mStartupTrace.beginPhase(PHASE_SHARE_IMAGE);
+        mMaterializeTask = new AssetMaterializer(this).materialize(R.mipmap.share, Bitmap.CompressFormat.JPEG, 100,
+                new AssetMaterializer.Callback() {
+                    @Override
+                    public void onMaterialized(File file) {
+                        mMaterializeTask = null;
+                        if (file != null) {
+                            mShareImageUrl = file.getAbsolutePath();
+                        }
+                        // 写入失败时仍然允许点击，由分享入口提示图片为空
+                        mShareButton.setEnabled(true);
+                        mStartupTrace.markInteractive();
+                        Log.d(TAG, mStartupTrace.toString());
+                    }
+                });
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mMaterializeTask != null) {
+            mMaterializeTask.cancel(false);
+            mMaterializeTask = null;
+        }
+        super.onDestroy();
     }
 
 }
@@ -0,0 +1,158 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 将图片资源写成文件，供只接受文件路径的分享接口使用
+ * <p>
+ * 文件名由资源id和安装包的版本（versionCode和安装时间）决定，已经写过的文件直接使用，
+ * 只有首次启动或者升级之后才会解码和编码；检查和写入都在后台线程中进行，不占用启动时间。
+ * 先写入临时文件再重命名，进程中途退出时不会留下不完整的文件
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class AssetMaterializer {
+    private static final String TAG = "AssetMaterializer";
+
+    private static final String FILE_PREFIX = "res_";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public interface Callback {
+        /**
+         * 在主线程中回调
+         *
+         * @param file 资源对应的文件，写入失败时为null
+         */
+        void onMaterialized(File file);
+    }
+
+    private final Context mContext;
+
+    public AssetMaterializer(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * 获取图片资源对应的文件，不存在时在后台写入
+     *
+     * @param resId    图片资源id
+     * @param format   编码格式
+     * @param quality  压缩质量
+     * @param callback 完成后回调
+     * @return 可以用于取消的任务
+     */
+    public AsyncTask<Void, Void, File> materialize(final int resId, final Bitmap.CompressFormat format,
+                                                   final int quality, final Callback callback) {
+        final long start = SystemClock.elapsedRealtime();
+        AsyncTask<Void, Void, File> task = new AsyncTask<Void, Void, File>() {
+            @Override
+            protected File doInBackground(Void... params) {
+                try {
+                    return getOrCreate(resId, format, quality);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to materialize resource " + resId, e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(File file) {
+                Log.d(TAG, "Resource " + resId + " ready in " + (SystemClock.elapsedRealtime() - start) + "ms");
+                callback.onMaterialized(file);
+            }
+        };
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return task;
+    }
+
+    /**
+     * 需要在后台线程中调用
+     */
+    File getOrCreate(int resId, Bitmap.CompressFormat format, int quality) throws IOException {
+        File dir = getDirectory();
+        String prefix = FILE_PREFIX + Integer.toHexString(resId) + "_";
+        File file = new File(dir, prefix + getVersionKey() + "." + format.name().toLowerCase());
+        if (file.isFile() && file.length() > 0) {
+            return file;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        deleteStale(dir, prefix);
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resId);
+        if (bitmap == null) {
+            throw new IOException("Failed to decode resource " + resId);
+        }
+
+        File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                ImageUtil.encode(bitmap, format, quality, output.getChannel());
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can not write file: " + file);
+        }
+        Log.d(TAG, "Wrote " + file + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        return file;
+    }
+
+    /**
+     * 外部缓存目录，QQ等其他应用需要读取分享的文件
+     */
+    private File getDirectory() throws IOException {
+        File dir = mContext.getExternalCacheDir();
+        if (dir == null) {
+            dir = mContext.getCacheDir();
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create dir: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * 覆盖安装后资源可能已经变化，versionCode不变时（例如调试包）以安装时间区分
+     */
+    private String getVersionKey() {
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0);
+            return info.versionCode + "_" + Long.toString(info.lastUpdateTime, Character.MAX_RADIX);
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 删除同一资源之前版本的文件
+     */
+    private static void deleteStale(File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+    }
+}
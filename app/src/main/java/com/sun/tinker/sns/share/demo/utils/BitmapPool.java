@@ -0,0 +1,225 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 可复用图片的缓存池，配合{@link android.graphics.BitmapFactory.Options#inBitmap}使用，减少重复分享时的内存分配
+ * <p>
+ * Android 4.4及以上按占用字节数分桶，只要容量足够即可复用；4.4以下inBitmap要求尺寸和格式完全一致，
+ * 按宽高和格式分桶。池中图片总大小超出限制时淘汰最早放入的图片
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class BitmapPool {
+    private static final int MEMORY_FRACTION = 16;
+
+    /**
+     * 复用的图片最多比需要的大这么多倍，避免小图片长期占用大块内存
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static BitmapPool sInstance;
+
+    private final long mMaxBytes;
+    private final TreeMap<Integer, LinkedList<Bitmap>> mSizeBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+    private final Map<String, LinkedList<Bitmap>> mExactBuckets = new HashMap<String, LinkedList<Bitmap>>();
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+
+    private long mCurrentBytes;
+    private long mHitCount;
+    private long mMissCount;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 4.4以下inBitmap只支持尺寸完全一致且不经过采样的解码
+     *
+     * @param sampleSize 解码时的采样比例
+     * @param scaled     解码时是否缩放
+     * @return 是否可以复用池中的图片
+     */
+    public static boolean canReuse(int sampleSize, boolean scaled) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || (sampleSize == 1 && !scaled);
+    }
+
+    /**
+     * 取出一张可以容纳指定尺寸的可变图片
+     *
+     * @return 池中没有合适的图片时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? takeBySize(width, height, config) : takeExact(width, height, config);
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        mOrder.remove(bitmap);
+        mCurrentBytes -= getSize(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 取出一张指定尺寸的可变图片，池中没有时新建，内容需要调用者自己清除
+     */
+    public Bitmap getOrCreate(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 归还图片，不可复用的图片会被直接回收；归还后调用者不能再使用该图片
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        if (mOrder.contains(bitmap)) {
+            return;
+        }
+
+        int size = getSize(bitmap);
+        if (!bitmap.isMutable() || size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        bucketFor(bitmap).add(bitmap);
+        mOrder.add(bitmap);
+        mCurrentBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap takeBySize(int width, int height, Bitmap.Config config) {
+        int needed = width * height * getBytesPerPixel(config);
+        Map.Entry<Integer, LinkedList<Bitmap>> entry = mSizeBuckets.ceilingEntry(needed);
+        if (entry == null || entry.getKey() > (long) needed * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().removeFirst();
+        if (entry.getValue().isEmpty()) {
+            mSizeBuckets.remove(entry.getKey());
+        }
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    private Bitmap takeExact(int width, int height, Bitmap.Config config) {
+        String key = exactKey(width, height, config);
+        LinkedList<Bitmap> bucket = mExactBuckets.get(key);
+        if (bucket == null) {
+            return null;
+        }
+
+        Bitmap bitmap = bucket.removeFirst();
+        if (bucket.isEmpty()) {
+            mExactBuckets.remove(key);
+        }
+        return bitmap;
+    }
+
+    private LinkedList<Bitmap> bucketFor(Bitmap bitmap) {
+        LinkedList<Bitmap> bucket;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int size = getSize(bitmap);
+            bucket = mSizeBuckets.get(size);
+            if (bucket == null) {
+                bucket = new LinkedList<Bitmap>();
+                mSizeBuckets.put(size, bucket);
+            }
+        } else {
+            String key = exactKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            bucket = mExactBuckets.get(key);
+            if (bucket == null) {
+                bucket = new LinkedList<Bitmap>();
+                mExactBuckets.put(key, bucket);
+            }
+        }
+        return bucket;
+    }
+
+    private void trimToSize(long maxBytes) {
+        while (mCurrentBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap eldest = mOrder.removeFirst();
+            mCurrentBytes -= getSize(eldest);
+
+            removeFromBucket(eldest);
+            eldest.recycle();
+        }
+    }
+
+    private void removeFromBucket(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int size = getSize(bitmap);
+            LinkedList<Bitmap> bucket = mSizeBuckets.get(size);
+            if (bucket != null && bucket.remove(bitmap) && bucket.isEmpty()) {
+                mSizeBuckets.remove(size);
+            }
+        } else {
+            String key = exactKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            LinkedList<Bitmap> bucket = mExactBuckets.get(key);
+            if (bucket != null && bucket.remove(bitmap) && bucket.isEmpty()) {
+                mExactBuckets.remove(key);
+            }
+        }
+    }
+
+    private static String exactKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + "/" + config;
+    }
+
+    private static int getSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
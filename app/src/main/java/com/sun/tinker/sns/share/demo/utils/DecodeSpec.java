@@ -0,0 +1,120 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+/**
+ * 图片解码参数，指定目标尺寸、采样策略和内存上限
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class DecodeSpec {
+    /**
+     * 分享图片解码时每个条带占用内存的默认上限，超大的原图分块解码
+     */
+    public static final long DEFAULT_TILE_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * 采样策略
+     */
+    public enum SampleMode {
+        /**
+         * 按宽高比例四舍五入计算inSampleSize，解码器可能再向下取整到2的幂
+         */
+        ROUND,
+        /**
+         * inSampleSize取不超过缩放比例的最大2的幂，解码结果不小于目标尺寸
+         */
+        POWER_OF_TWO,
+        /**
+         * 先按2的幂采样，再通过inDensity/inTargetDensity在解码时缩放到刚好不超过目标尺寸
+         */
+        EXACT
+    }
+
+    public final int reqWidth;
+    public final int reqHeight;
+
+    private SampleMode mSampleMode = SampleMode.ROUND;
+    private long mMaxBytes;
+    private long mTileBytes;
+    private boolean mRgb565Allowed;
+    private BitmapPool mBitmapPool;
+
+    /**
+     * @param reqWidth  目标宽度，小于等于0表示不限制
+     * @param reqHeight 目标高度，小于等于0表示不限制
+     */
+    public DecodeSpec(int reqWidth, int reqHeight) {
+        this.reqWidth = reqWidth;
+        this.reqHeight = reqHeight;
+    }
+
+    public DecodeSpec setSampleMode(SampleMode sampleMode) {
+        mSampleMode = sampleMode;
+        return this;
+    }
+
+    public SampleMode getSampleMode() {
+        return mSampleMode;
+    }
+
+    /**
+     * 设置解码后图片占用内存的上限，小于等于0表示不限制
+     *
+     * @param maxBytes 字节数
+     */
+    public DecodeSpec setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 设置分块解码时每个条带占用内存的上限，采样后的整图超过这个大小时改为逐条解码并缩放，
+     * 峰值内存不再随原图尺寸增长。小于等于0表示不分块
+     *
+     * @param tileBytes 字节数
+     */
+    public DecodeSpec setTileBytes(long tileBytes) {
+        mTileBytes = tileBytes;
+        return this;
+    }
+
+    public long getTileBytes() {
+        return mTileBytes;
+    }
+
+    /**
+     * 设置是否允许把不透明的图片解码为RGB_565，内存减半，渐变区域会有轻微的色带，
+     * 适合解码后还要缩小并有损压缩的场景。是否不透明根据文件头判断，无法判断时仍然使用ARGB_8888
+     *
+     * @param allowed 默认为false
+     */
+    public DecodeSpec setRgb565Allowed(boolean allowed) {
+        mRgb565Allowed = allowed;
+        return this;
+    }
+
+    public boolean isRgb565Allowed() {
+        return mRgb565Allowed;
+    }
+
+    /**
+     * 设置解码时复用图片的缓存池，为null时不复用
+     */
+    public DecodeSpec setBitmapPool(BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+        return this;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    @Override
+    public String toString() {
+        return reqWidth + "x" + reqHeight + "/" + mSampleMode + "/" + mMaxBytes + "/" + mTileBytes
+                + (mRgb565Allowed ? "/565" : "");
+    }
+}
@@ -0,0 +1,111 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 磁盘缓存共用的工具方法：先写临时文件再重命名、按最近使用时间淘汰和生成十六进制的key
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+final class DiskCacheUtil {
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 超过这个时间没有写入的临时文件认为是进程中途退出留下的，写入中的文件会持续更新修改时间
+     */
+    private static final long STALE_TEMP_MILLIS = 10 * 60 * 1000;
+
+    private DiskCacheUtil() {
+    }
+
+    static void ensureDir(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create cache dir: " + dir);
+        }
+    }
+
+    /**
+     * 缓存文件对应的临时文件，写完后通过{@link #commit(File, File)}重命名
+     */
+    static File tempFile(File file) {
+        return new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+    }
+
+    /**
+     * 把写完的临时文件重命名为缓存文件，进程中途退出时不会留下不完整的缓存
+     *
+     * @throws IOException 重命名失败，临时文件由调用者删除
+     */
+    static void commit(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can not write cache file: " + file);
+        }
+    }
+
+    /**
+     * 缓存超出限制时按最近使用时间删除最旧的文件，同时删除残留的临时文件
+     *
+     * @param dir             缓存目录
+     * @param maxBytes        缓存大小上限
+     * @param companionSuffix 与缓存文件同名、随之一起删除的附属文件的后缀，没有时为null
+     */
+    static void trim(File dir, long maxBytes, String companionSuffix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                if (now - file.lastModified() > STALE_TEMP_MILLIS) {
+                    file.delete();
+                }
+                // 临时文件不会被淘汰，也不计入缓存大小
+                continue;
+            }
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX) || (companionSuffix != null && name.endsWith(companionSuffix))) {
+                continue;
+            }
+            total -= file.length();
+            file.delete();
+            if (companionSuffix != null) {
+                File companion = new File(dir, name + companionSuffix);
+                total -= companion.length();
+                companion.delete();
+            }
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
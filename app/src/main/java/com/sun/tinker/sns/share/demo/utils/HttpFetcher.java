@@ -0,0 +1,342 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 分享用到的HTTP请求
+ * <p>
+ * 在{@link HttpURLConnection}的基础上统一设置连接和读取超时，自己处理重定向（包括http和https之间的跳转，
+ * 系统实现不会跟随），GET请求在网络错误和5xx时按指数退避重试，并限制同一主机同时进行的请求数，
+ * 一个慢的CDN不会占满所有的准备线程。
+ * </p>
+ * <p>
+ * 响应体读完并关闭后连接会回到系统的keep-alive连接池，之后访问同一主机不需要重新建立连接和TLS握手，
+ * 所以请求成功时不调用{@link HttpURLConnection#disconnect()}；响应体未读完时才断开
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class HttpFetcher {
+    private static final String TAG = "HttpFetcher";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+
+    /**
+     * 关闭响应时最多读取剩余数据的字节数，读完才能复用连接，超出时直接断开
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static HttpFetcher sInstance;
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final int mMaxAttempts;
+    private final long mInitialBackoff;
+    private final int mMaxRequestsPerHost;
+
+    private final ConcurrentHashMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<String, Semaphore>();
+    private final Random mRandom = new Random();
+
+    HttpFetcher(int connectTimeout, int readTimeout, int maxAttempts, long initialBackoff, int maxRequestsPerHost) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mMaxAttempts = maxAttempts;
+        mInitialBackoff = initialBackoff;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public static synchronized HttpFetcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpFetcher(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, MAX_ATTEMPTS,
+                    INITIAL_BACKOFF_MILLIS, MAX_REQUESTS_PER_HOST);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 发送GET请求，网络错误、5xx和429时重试，需要在后台线程中调用
+     *
+     * @param url     地址
+     * @param headers 请求头，可以为null
+     * @return 最终的响应（包括非2xx），使用完后需要关闭
+     * @throws IOException 重试后仍然无法连接，或者线程被中断
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        return execute("GET", url, headers, null, null, mMaxAttempts);
+    }
+
+    /**
+     * 发送POST请求，请求不是幂等的，不会重试，需要在后台线程中调用
+     *
+     * @param url         地址
+     * @param contentType 请求体的类型
+     * @param body        请求体
+     * @return 响应（包括非2xx），使用完后需要关闭
+     * @throws IOException 无法连接，或者线程被中断
+     */
+    public Response post(String url, String contentType, byte[] body) throws IOException {
+        return execute("POST", url, null, contentType, body, 1);
+    }
+
+    private Response execute(String method, String url, Map<String, String> headers, String contentType,
+                             byte[] body, int maxAttempts) throws IOException {
+        if (headers == null) {
+            headers = Collections.emptyMap();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = followRedirects(method, url, headers, contentType, body);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                Log.w(TAG, "Attempt " + attempt + " failed for " + url, e);
+                sleep(getBackoffMillis(attempt));
+                continue;
+            }
+
+            int code = response.getCode();
+            if (attempt >= maxAttempts || (code < HttpURLConnection.HTTP_INTERNAL_ERROR
+                    && code != HTTP_TOO_MANY_REQUESTS)) {
+                return response;
+            }
+            Log.w(TAG, "Attempt " + attempt + " got " + code + " for " + url);
+            response.close();
+            sleep(getBackoffMillis(attempt));
+        }
+    }
+
+    private Response followRedirects(String method, String url, Map<String, String> headers, String contentType,
+                                     byte[] body) throws IOException {
+        URL current = new URL(url);
+        for (int redirects = 0; ; redirects++) {
+            Response response = open(method, current, headers, contentType, body);
+            int code = response.getCode();
+            String location = response.getHeader("Location");
+            if (!isRedirect(code) || location == null) {
+                return response;
+            }
+
+            response.close();
+            if (redirects >= MAX_REDIRECTS) {
+                throw new IOException("Too many redirects for " + url);
+            }
+            current = new URL(current, location);
+            if (!"http".equals(current.getProtocol()) && !"https".equals(current.getProtocol())) {
+                throw new IOException("Unsupported redirect to " + current);
+            }
+            // 303以及历史上浏览器对301、302的处理方式：之后改为GET，不再发送请求体
+            if (code != HTTP_TEMPORARY_REDIRECT && code != HTTP_PERMANENT_REDIRECT) {
+                method = "GET";
+                contentType = null;
+                body = null;
+            }
+        }
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == HttpURLConnection.HTTP_MOVED_PERM || code == HttpURLConnection.HTTP_MOVED_TEMP
+                || code == HttpURLConnection.HTTP_SEE_OTHER || code == HTTP_TEMPORARY_REDIRECT
+                || code == HTTP_PERMANENT_REDIRECT;
+    }
+
+    private Response open(String method, URL url, Map<String, String> headers, String contentType, byte[] body)
+            throws IOException {
+        Semaphore permits = acquire(url.getHost());
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestMethod(method);
+            // 自己设置Accept-Encoding后系统不再自动解压，统一在这里处理
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream output = connection.getOutputStream();
+                try {
+                    output.write(body);
+                } finally {
+                    output.close();
+                }
+            }
+            int code = connection.getResponseCode();
+            return new Response(connection, code, permits);
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Semaphore acquire(String host) throws IOException {
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(mMaxRequestsPerHost, true);
+            permits = mHostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + host);
+        }
+        return permits;
+    }
+
+    /**
+     * 第n次失败后等待的时间，在[1/2, 1]倍的指数退避之间随机，避免多个请求同时重试
+     */
+    long getBackoffMillis(int attempt) {
+        long backoff = mInitialBackoff << Math.min(attempt - 1, 16);
+        double jitter;
+        synchronized (mRandom) {
+            jitter = mRandom.nextDouble();
+        }
+        return backoff / 2 + (long) (backoff / 2 * jitter);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off.");
+        }
+    }
+
+    /**
+     * HTTP响应，关闭后连接回到连接池，并释放所在主机的并发名额
+     */
+    public static final class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final Semaphore mPermits;
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+        private InputStream mBody;
+
+        Response(HttpURLConnection connection, int code, Semaphore permits) {
+            mConnection = connection;
+            mCode = code;
+            mPermits = permits;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * 经过重定向之后的最终地址
+         */
+        public URL getUrl() {
+            return mConnection.getURL();
+        }
+
+        /**
+         * 响应体，已经按Content-Encoding解压；4xx和5xx时为错误内容
+         *
+         * @return 没有响应体时返回空的输入流
+         */
+        public synchronized InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream input = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (input == null) {
+                    input = new ByteArrayInputStream(new byte[0]);
+                } else if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    input = new GZIPInputStream(input);
+                }
+                mBody = input;
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            if (!mClosed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (drain()) {
+                    mBody.close();
+                } else {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+            } finally {
+                mPermits.release();
+            }
+        }
+
+        /**
+         * 读完剩余的响应体
+         *
+         * @return 是否读到了末尾，可以复用连接
+         */
+        private boolean drain() throws IOException {
+            InputStream input = getBody();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int drained = 0;
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                drained += count;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
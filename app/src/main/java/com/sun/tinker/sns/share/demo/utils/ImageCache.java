@@ -0,0 +1,238 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 网络图片的磁盘缓存
+ * <p>
+ * 按url缓存原始图片数据，并记录ETag和Last-Modified，过期后使用条件请求重新验证。
+ * 解码和缩放由{@link RenditionCache}按平台规格完成，这里只负责下载
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class ImageCache {
+    private static final String TAG = "ImageCache";
+
+    private static final String DISK_CACHE_DIR = "share_images";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last_modified";
+    private static final String META_EXPIRES = "expires";
+
+    private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final long DEFAULT_FRESHNESS_MILLIS = 10 * 60 * 1000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int LOCK_COUNT = 16;
+
+    private static ImageCache sInstance;
+
+    private final File mDiskCacheDir;
+    private final long mMaxDiskCacheBytes;
+
+    /**
+     * 同一url的下载和验证串行进行，避免连续分享同一图片时重复下载
+     */
+    private final StripedLocks mLocks = new StripedLocks(LOCK_COUNT);
+
+    ImageCache(File diskCacheDir, long maxDiskCacheBytes) {
+        mDiskCacheDir = diskCacheDir;
+        mMaxDiskCacheBytes = maxDiskCacheBytes;
+    }
+
+    public static synchronized ImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            File dir = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+            sInstance = new ImageCache(dir, MAX_DISK_CACHE_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 获取网络图片在磁盘缓存中的文件，缓存过期时使用ETag和Last-Modified重新验证
+     *
+     * @param url 图片地址
+     * @return 缓存文件
+     * @throws IOException 下载失败
+     */
+    public File getFile(String url) throws IOException {
+        String key = hashKey(url);
+        synchronized (mLocks.get(key)) {
+            return getFileLocked(url, key);
+        }
+    }
+
+    private File getFileLocked(String url, String key) throws IOException {
+        DiskCacheUtil.ensureDir(mDiskCacheDir);
+
+        File body = new File(mDiskCacheDir, key);
+        File metaFile = new File(mDiskCacheDir, key + META_SUFFIX);
+        Properties meta = body.exists() ? readMeta(metaFile) : new Properties();
+
+        long now = System.currentTimeMillis();
+        if (body.exists() && parseLong(meta.getProperty(META_EXPIRES)) > now) {
+            body.setLastModified(now);
+            return body;
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        if (body.exists()) {
+            String etag = meta.getProperty(META_ETAG);
+            if (!TextUtils.isEmpty(etag)) {
+                headers.put("If-None-Match", etag);
+            }
+            String lastModified = meta.getProperty(META_LAST_MODIFIED);
+            if (!TextUtils.isEmpty(lastModified)) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+        }
+
+        HttpFetcher.Response response = HttpFetcher.getInstance().get(url, headers);
+        try {
+            int code = response.getCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && body.exists()) {
+                meta.setProperty(META_EXPIRES, String.valueOf(now + getFreshness(response)));
+                writeMeta(metaFile, meta);
+                body.setLastModified(now);
+                return body;
+            }
+
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + code + " for " + url);
+            }
+
+            File temp = DiskCacheUtil.tempFile(body);
+            boolean renamed = false;
+            try {
+                OutputStream output = new FileOutputStream(temp);
+                try {
+                    copy(response.getBody(), output);
+                } finally {
+                    output.close();
+                }
+                DiskCacheUtil.commit(temp, body);
+                renamed = true;
+            } finally {
+                // 下载中断或者重命名失败都不能留下临时文件
+                if (!renamed) {
+                    temp.delete();
+                }
+            }
+
+            Properties newMeta = new Properties();
+            putIfNotEmpty(newMeta, META_ETAG, response.getHeader("ETag"));
+            putIfNotEmpty(newMeta, META_LAST_MODIFIED, response.getHeader("Last-Modified"));
+            newMeta.setProperty(META_EXPIRES, String.valueOf(now + getFreshness(response)));
+            writeMeta(metaFile, newMeta);
+        } finally {
+            response.close();
+        }
+
+        DiskCacheUtil.trim(mDiskCacheDir, mMaxDiskCacheBytes, META_SUFFIX);
+        return body;
+    }
+
+    /**
+     * 根据Cache-Control的max-age计算缓存的有效期，没有指定时使用默认值
+     */
+    private static long getFreshness(HttpFetcher.Response response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    return parseLong(directive.substring("max-age=".length())) * 1000;
+                }
+            }
+        }
+        return DEFAULT_FRESHNESS_MILLIS;
+    }
+
+    private static Properties readMeta(File metaFile) {
+        Properties meta = new Properties();
+        if (!metaFile.exists()) {
+            return meta;
+        }
+
+        try {
+            InputStream input = new FileInputStream(metaFile);
+            try {
+                meta.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read cache meta: " + metaFile, e);
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) {
+        try {
+            OutputStream output = new FileOutputStream(metaFile);
+            try {
+                meta.store(output, null);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache meta: " + metaFile, e);
+        }
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+    }
+
+    private static void putIfNotEmpty(Properties meta, String key, String value) {
+        if (!TextUtils.isEmpty(value)) {
+            meta.setProperty(key, value);
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String hashKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return DiskCacheUtil.toHex(digest.digest(url.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(url.hashCode());
+        } catch (IOException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+
+import java.io.File;
+
+/**
+ * 图片文件的头信息：宽高、格式、文件大小和EXIF方向，只读取文件头，不解码像素
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class ImageHeader {
+    public final int width;
+    public final int height;
+    public final String mimeType;
+    public final long byteCount;
+    /**
+     * EXIF中的方向，宽高是旋转前的尺寸
+     */
+    public final int orientation;
+
+    private ImageHeader(int width, int height, String mimeType, long byteCount, int orientation) {
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+        this.byteCount = byteCount;
+        this.orientation = orientation;
+    }
+
+    /**
+     * 读取图片文件的头信息
+     *
+     * @param file 图片文件
+     * @return 文件不存在或者不是可以识别的图片时返回null
+     */
+    public static ImageHeader read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0 || options.outMimeType == null) {
+            return null;
+        }
+        return new ImageHeader(options.outWidth, options.outHeight, options.outMimeType, file.length(),
+                ImageUtil.getExifOrientation(file.getAbsolutePath(), options.outMimeType));
+    }
+
+    /**
+     * 图片的格式
+     *
+     * @return 不是JPEG、PNG或WEBP时返回null
+     */
+    public Bitmap.CompressFormat getFormat() {
+        if ("image/jpeg".equals(mimeType)) {
+            return Bitmap.CompressFormat.JPEG;
+        } else if ("image/png".equals(mimeType)) {
+            return Bitmap.CompressFormat.PNG;
+        } else if ("image/webp".equals(mimeType)) {
+            return Bitmap.CompressFormat.WEBP;
+        }
+        return null;
+    }
+
+    /**
+     * 文件是否已经满足派生规格，满足时可以直接使用原文件；需要按EXIF旋转的图片不直接使用，
+     * 各平台不一定会读取EXIF中的方向
+     */
+    public boolean satisfies(RenditionProfile profile) {
+        return getFormat() == profile.format
+                && orientation == ExifInterface.ORIENTATION_NORMAL
+                && Math.max(width, height) <= profile.maxDimension
+                && !profile.needsCrop(width, height)
+                && (!profile.hasByteLimit() || byteCount <= profile.maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + ", " + mimeType + ", " + byteCount + " bytes, orientation " + orientation;
+    }
+}
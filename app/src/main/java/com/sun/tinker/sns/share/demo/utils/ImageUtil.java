@@ -3,14 +3,74 @@ package com.sun.tinker.sns.share.demo.utils;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 /**
  * @author tinker<sunting.bcwl@gmail.com>
  */
 public final class ImageUtil {
+    private static final String TAG = "ImageUtil";
+
+    /**
+     * 默认ARGB_8888每个像素占用的字节数
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * 使用inDensity/inTargetDensity缩放时的基数，数值越大缩放比例越精确
+     */
+    private static final int DENSITY_SCALE_BASE = 10000;
+
+    /**
+     * 估算编码结果大小时使用的压缩比
+     */
+    private static final int PNG_COMPRESS_RATIO = 2;
+    private static final int LOSSY_COMPRESS_RATIO = 8;
+    private static final int MIN_ENCODE_BUFFER_SIZE = 4 * 1024;
+    private static final int CHANNEL_BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * 计算显著区域时使用的预览图长边的最大值
+     */
+    private static final int SALIENCY_PREVIEW_SIZE = 128;
+
+    /**
+     * 其他位置的细节需要比居中位置多出这个比例才会偏离中心裁剪，避免纹理均匀的图片裁剪位置随机
+     */
+    private static final float CENTER_BIAS = 0.1f;
+
+    /**
+     * 判断图片是否不透明时最多读取的字节数，PNG的tRNS块在第一个IDAT之前，通常在开头几KB之内
+     */
+    private static final int OPACITY_SCAN_LIMIT = 64 * 1024;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int PNG_CHUNK_IHDR = 0x49484452;
+    private static final int PNG_CHUNK_TRNS = 0x74524e53;
+    private static final int PNG_CHUNK_IDAT = 0x49444154;
+    private static final int PNG_COLOR_TYPE_ALPHA = 4;
+    private static final int WEBP_HEADER_SIZE = 30;
+    private static final int WEBP_VP8X_ALPHA = 0x10;
 
     /**
      * 根据传过来的宽高,计算压缩比例
@@ -41,6 +101,283 @@ public final class ImageUtil {
         return inSampleSize;
     }
 
+    /**
+     * 根据解码参数设置采样比例，options中需要已经读取到图片的原始宽高
+     *
+     * @param options
+     * @param spec
+     */
+    public static void applyDecodeSpec(BitmapFactory.Options options, DecodeSpec spec) {
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        options.inSampleSize = 1;
+        options.inScaled = false;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        DecodeSpec.SampleMode mode = spec.getSampleMode();
+        long maxBytes = spec.getMaxBytes();
+        if (mode == DecodeSpec.SampleMode.ROUND && maxBytes <= 0) {
+            options.inSampleSize = calculateInSampleSize(options, spec.reqWidth, spec.reqHeight);
+            return;
+        }
+
+        float scale = getTargetScale(width, height, spec);
+        if (scale <= 1) {
+            return;
+        }
+
+        int sampleSize;
+        switch (mode) {
+            case POWER_OF_TWO:
+                sampleSize = Integer.highestOneBit((int) scale);
+                while (exceedsBudget(width, height, sampleSize, maxBytes)) {
+                    sampleSize *= 2;
+                }
+                break;
+            case EXACT:
+                sampleSize = Integer.highestOneBit((int) scale);
+                // 采样后剩余的缩放交给解码器完成，inDensity向上取整保证结果不超过目标尺寸
+                options.inScaled = true;
+                options.inTargetDensity = DENSITY_SCALE_BASE;
+                options.inDensity = (int) Math.ceil(DENSITY_SCALE_BASE * scale / sampleSize);
+                if (options.inDensity == options.inTargetDensity) {
+                    options.inScaled = false;
+                }
+                break;
+            default:
+                sampleSize = Math.max(1, calculateInSampleSize(options, spec.reqWidth, spec.reqHeight));
+                while (exceedsBudget(width, height, sampleSize, maxBytes)) {
+                    sampleSize++;
+                }
+                break;
+        }
+        options.inSampleSize = sampleSize;
+    }
+
+    /**
+     * 需要缩小的倍数，同时满足目标尺寸和内存上限
+     */
+    private static float getTargetScale(int width, int height, DecodeSpec spec) {
+        float scale = 1;
+        if (spec.reqWidth > 0 && spec.reqHeight > 0) {
+            scale = Math.max((float) width / spec.reqWidth, (float) height / spec.reqHeight);
+        }
+        long maxBytes = spec.getMaxBytes();
+        if (maxBytes > 0) {
+            double budgetScale = Math.sqrt((double) width * height * BYTES_PER_PIXEL / maxBytes);
+            scale = Math.max(scale, (float) budgetScale);
+        }
+        return scale;
+    }
+
+    private static boolean exceedsBudget(int width, int height, int sampleSize, long maxBytes) {
+        if (maxBytes <= 0) {
+            return false;
+        }
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        long sampledHeight = (height + sampleSize - 1) / sampleSize;
+        return sampledWidth * sampledHeight * BYTES_PER_PIXEL > maxBytes;
+    }
+
+    /**
+     * 从复用池中取出能容纳解码结果的图片作为inBitmap，需要在计算采样比例之后调用
+     */
+    private static void applyBitmapPool(BitmapFactory.Options options, DecodeSpec spec) {
+        BitmapPool pool = spec.getBitmapPool();
+        if (pool == null || options.outWidth <= 0 || options.outHeight <= 0
+                || !BitmapPool.canReuse(options.inSampleSize, options.inScaled)) {
+            return;
+        }
+
+        // 按向上取整估算解码结果的尺寸，保证复用的图片容量足够
+        int sampleSize = options.inSampleSize;
+        double width = (options.outWidth + sampleSize - 1) / sampleSize;
+        double height = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (options.inScaled) {
+            width = Math.ceil(width * options.inTargetDensity / options.inDensity);
+            height = Math.ceil(height * options.inTargetDensity / options.inDensity);
+        }
+        Bitmap.Config config = options.inPreferredConfig != null
+                ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+
+        options.inMutable = true;
+        options.inBitmap = pool.get((int) width, (int) height, config);
+    }
+
+    /**
+     * inBitmap不能用于本次解码时归还复用池
+     */
+    private static void releaseInBitmap(BitmapFactory.Options options, DecodeSpec spec) {
+        if (options.inBitmap != null) {
+            spec.getBitmapPool().put(options.inBitmap);
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * 解码时使用了inDensity/inTargetDensity缩放的图片，其density只是缩放比例，需要清除
+     */
+    private static Bitmap finishDecode(Bitmap bitmap, BitmapFactory.Options options, DecodeSpec spec) {
+        if (bitmap != options.inBitmap) {
+            releaseInBitmap(options, spec);
+        }
+        if (bitmap != null && options.inScaled) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        if (bitmap != null && spec.isRgb565Allowed() && Log.isLoggable(TAG, Log.DEBUG)) {
+            logConfig(bitmap, options.outMimeType);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 记录解码结果的格式和占用的内存，RGB_565时同时记录相对ARGB_8888节省的内存。
+     * 每次解码都会经过这里，只在打开DEBUG日志时调用，避免拼接字符串
+     */
+    private static void logConfig(Bitmap bitmap, String mimeType) {
+        int bytes = bitmap.getByteCount();
+        String saved = bitmap.getConfig() == Bitmap.Config.RGB_565
+                ? ", saved " + (bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL - bytes) + " bytes" : "";
+        Log.d(TAG, "Decoded " + mimeType + " as " + bitmap.getConfig() + " " + bitmap.getWidth() + "x"
+                + bitmap.getHeight() + ", " + bytes + " bytes" + saved);
+    }
+
+    /**
+     * 解码参数允许并且图片一定不透明时解码为RGB_565，需要在{@link #applyBitmapPool}之前调用
+     */
+    private static void applyConfig(BitmapFactory.Options options, DecodeSpec spec, boolean opaque) {
+        if (spec.isRgb565Allowed() && opaque) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+    }
+
+    /**
+     * 根据文件头判断图片文件是否不透明，解码参数不允许RGB_565时不读取文件
+     */
+    private static boolean isOpaqueFile(String filePath, DecodeSpec spec) {
+        if (!spec.isRgb565Allowed()) {
+            return false;
+        }
+        try {
+            InputStream input = new FileInputStream(filePath);
+            try {
+                return isOpaque(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can not read header of " + filePath, e);
+            return false;
+        }
+    }
+
+    /**
+     * 根据文件头判断图片是否一定不透明：JPEG、颜色类型不带alpha并且没有tRNS块的PNG、没有alpha的WEBP。
+     * 不解码像素，最多读取{@link #OPACITY_SCAN_LIMIT}字节（另加少量预读）
+     *
+     * @param input 从图片开头读取，调用者负责关闭
+     * @return 其他格式或者无法判断时返回false
+     */
+    static boolean isOpaque(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input, PNG_SIGNATURE.length * 2));
+        byte[] header = new byte[WEBP_HEADER_SIZE];
+        try {
+            data.readFully(header, 0, 2);
+            if ((header[0] & 0xff) == 0xff && (header[1] & 0xff) == 0xd8) {
+                return true;
+            }
+            data.readFully(header, 2, PNG_SIGNATURE.length - 2);
+            if (startsWith(header, PNG_SIGNATURE)) {
+                return isOpaquePng(data);
+            }
+            data.readFully(header, PNG_SIGNATURE.length, WEBP_HEADER_SIZE - PNG_SIGNATURE.length);
+            if (startsWith(header, "RIFF".getBytes("US-ASCII"))
+                    && new String(header, 8, 4, "US-ASCII").equals("WEBP")) {
+                return isOpaqueWebp(header);
+            }
+        } catch (EOFException e) {
+            // 文件太短，不是可以识别的图片
+        }
+        return false;
+    }
+
+    /**
+     * 按顺序读取IHDR之后、第一个IDAT之前的块，调色板图片的透明度也保存在tRNS块中
+     */
+    private static boolean isOpaquePng(DataInputStream data) throws IOException {
+        boolean opaqueColorType = false;
+        long scanned = PNG_SIGNATURE.length;
+        while (scanned < OPACITY_SCAN_LIMIT) {
+            int length = data.readInt();
+            int type = data.readInt();
+            scanned += 8;
+            if (type == PNG_CHUNK_IDAT) {
+                return opaqueColorType;
+            } else if (type == PNG_CHUNK_TRNS) {
+                return false;
+            } else if (type == PNG_CHUNK_IHDR) {
+                // 宽、高和位深之后是颜色类型，4和6带有alpha通道
+                data.readInt();
+                data.readInt();
+                data.readByte();
+                int colorType = data.readUnsignedByte();
+                opaqueColorType = (colorType & PNG_COLOR_TYPE_ALPHA) == 0;
+                if (!opaqueColorType) {
+                    return false;
+                }
+                length -= 10;
+                scanned += 10;
+            }
+            // 剩余数据和4字节的CRC，超出读取上限时不再继续
+            if (length < 0 || scanned + length + 4L > OPACITY_SCAN_LIMIT) {
+                return false;
+            }
+            skipFully(data, length + 4L);
+            scanned += length + 4L;
+        }
+        return false;
+    }
+
+    /**
+     * 简单格式（VP8）不支持透明；无损格式（VP8L）和扩展格式（VP8X）的头部有alpha标记
+     */
+    private static boolean isOpaqueWebp(byte[] header) throws IOException {
+        String chunk = new String(header, 12, 4, "US-ASCII");
+        if ("VP8 ".equals(chunk)) {
+            return true;
+        } else if ("VP8L".equals(chunk)) {
+            // 签名0x2f之后依次是14位宽度、14位高度和1位alpha_is_used，按小端序排列
+            return (header[20] & 0xff) == 0x2f && (header[24] & 0x10) == 0;
+        } else if ("VP8X".equals(chunk)) {
+            return (header[20] & WEBP_VP8X_ALPHA) == 0;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream input, long count) throws IOException {
+        while (count > 0) {
+            long skipped = input.skip(count);
+            if (skipped <= 0) {
+                if (input.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
     /**
      * 按照指定的寬高加载图片
      *
@@ -50,66 +387,624 @@ public final class ImageUtil {
      * @return
      */
     public static Bitmap decodeSampledBitmapFromFile(String filePath, int reqWidth, int reqHeight) {
+        return decodeSampledBitmapFromFile(filePath, new DecodeSpec(reqWidth, reqHeight));
+    }
+
+    /**
+     * 按照解码参数加载图片
+     *
+     * @param filePath
+     * @param spec
+     * @return
+     */
+    public static Bitmap decodeSampledBitmapFromFile(String filePath, DecodeSpec spec) {
 
         // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(filePath, options);
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+
+        // 目标尺寸针对旋转后的图片，宽高互换的方向先交换宽高再计算采样比例
+        final int orientation = getExifOrientation(filePath, options.outMimeType);
+        final boolean transposed = isTransposed(orientation);
+        if (transposed) {
+            options.outWidth = height;
+            options.outHeight = width;
+        }
 
         // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        applyDecodeSpec(options, spec);
+        applyConfig(options, spec, isOpaqueFile(filePath, spec));
+        if (shouldDecodeTiled(options, spec)) {
+            try {
+                return decodeTiledBitmapFromFile(filePath, width, height, orientation,
+                        options.inPreferredConfig, spec);
+            } catch (IOException e) {
+                Log.w(TAG, "Can not decode " + filePath + " by tiles, decode it as a whole.", e);
+            }
+        }
+
+        // 需要旋转时解码只按2的幂采样，剩余的缩放和旋转在同一次绘制中完成，不再多分配一张图片
+        float orientScale = 0;
+        if (orientation != ExifInterface.ORIENTATION_NORMAL && options.inScaled) {
+            orientScale = getTargetScale(options.outWidth, options.outHeight, spec);
+            options.inScaled = false;
+            // 不缩放时解码器会把inDensity设置为图片的density，清除后绘制时不会再按density缩放
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+        options.outWidth = width;
+        options.outHeight = height;
+        applyBitmapPool(options, spec);
 
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(filePath, options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(filePath, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的图片不满足解码要求，不复用重新解码
+            releaseInBitmap(options, spec);
+            bitmap = BitmapFactory.decodeFile(filePath, options);
+        }
+        bitmap = finishDecode(bitmap, options, spec);
+        if (bitmap != null && orientScale > 1) {
+            return orientBitmap(bitmap, orientation, Math.max(1, (int) (width / orientScale)),
+                    Math.max(1, (int) (height / orientScale)), spec);
+        }
+        return orientBitmap(bitmap, orientation, spec);
     }
 
-    public static Bitmap decodeSampledBitmapFromResource(Resources res, int resId, int reqWidth, int reqHeight) {
-        // First decode with inJustDecodeBounds=true to check dimensions
+    /**
+     * 读取JPEG文件EXIF中的方向，只读取文件头，不解码像素
+     *
+     * @return {@link ExifInterface}中的方向常量，其他格式、没有EXIF或者无法识别时返回
+     * {@link ExifInterface#ORIENTATION_NORMAL}
+     */
+    static int getExifOrientation(String filePath, String mimeType) {
+        // 7.0以下的ExifInterface只支持JPEG
+        if (!"image/jpeg".equals(mimeType)) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+        try {
+            int orientation = new ExifInterface(filePath).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+            if (orientation < ExifInterface.ORIENTATION_NORMAL || orientation > ExifInterface.ORIENTATION_ROTATE_270) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            return orientation;
+        } catch (IOException e) {
+            Log.w(TAG, "Can not read exif of " + filePath, e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * 旋转90度或270度（包括镜像后旋转）的方向，显示时宽高互换
+     */
+    static boolean isTransposed(int orientation) {
+        return orientation >= ExifInterface.ORIENTATION_TRANSPOSE;
+    }
+
+    /**
+     * 把width x height的未旋转图片变换到按EXIF方向显示的位置，结果的坐标都在旋转后的图片范围内
+     */
+    static Matrix getOrientationMatrix(int orientation, int width, int height) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                matrix.postTranslate(width, 0);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                matrix.postTranslate(width, height);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                matrix.postTranslate(0, height);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                matrix.postTranslate(height, 0);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                matrix.postTranslate(height, width);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                matrix.postTranslate(0, width);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    /**
+     * 按EXIF方向旋转图片，不缩放
+     *
+     * @return 不需要旋转时返回原图
+     */
+    private static Bitmap orientBitmap(Bitmap src, int orientation, DecodeSpec spec) {
+        if (src == null || orientation == ExifInterface.ORIENTATION_NORMAL) {
+            return src;
+        }
+        return orientBitmap(src, orientation, src.getWidth(), src.getHeight(), spec);
+    }
+
+    /**
+     * 在一次绘制中把图片缩放到width x height（旋转前的方向）并按EXIF方向旋转，绘制后归还原图
+     *
+     * @param src         解码得到的图片
+     * @param orientation EXIF方向
+     * @param width       旋转前的目标宽度
+     * @param height      旋转前的目标高度
+     * @param spec        结果图片从其中的复用池获取
+     * @return 方向正确的图片
+     */
+    private static Bitmap orientBitmap(Bitmap src, int orientation, int width, int height, DecodeSpec spec) {
+        Matrix matrix = getOrientationMatrix(orientation, width, height);
+        matrix.preScale((float) width / src.getWidth(), (float) height / src.getHeight());
+
+        boolean transposed = isTransposed(orientation);
+        int dstWidth = transposed ? height : width;
+        int dstHeight = transposed ? width : height;
+        Bitmap.Config config = src.getConfig() != null ? src.getConfig() : Bitmap.Config.ARGB_8888;
+        BitmapPool pool = spec.getBitmapPool();
+        Bitmap dst = pool != null ? pool.getOrCreate(dstWidth, dstHeight, config)
+                : Bitmap.createBitmap(dstWidth, dstHeight, config);
+        dst.eraseColor(Color.TRANSPARENT);
+        new Canvas(dst).drawBitmap(src, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        if (pool != null) {
+            pool.put(src);
+        } else {
+            src.recycle();
+        }
+        return dst;
+    }
+
+    /**
+     * 采样后的整图超过条带上限、并且最终结果比采样后的整图小时才分块解码，否则分块不能降低峰值内存
+     */
+    private static boolean shouldDecodeTiled(BitmapFactory.Options options, DecodeSpec spec) {
+        long tileBytes = spec.getTileBytes();
+        if (tileBytes <= 0 || options.inSampleSize <= 0 || !isRegionDecodable(options.outMimeType)) {
+            return false;
+        }
+
+        int sampleSize = options.inSampleSize;
+        long sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        long sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        long sampledBytes = sampledWidth * sampledHeight * BYTES_PER_PIXEL;
+        float scale = Math.max(1, getTargetScale(options.outWidth, options.outHeight, spec));
+        long targetBytes = (long) (options.outWidth / scale) * (long) (options.outHeight / scale) * BYTES_PER_PIXEL;
+        return sampledBytes > tileBytes && targetBytes < sampledBytes;
+    }
+
+    /**
+     * BitmapRegionDecoder只支持JPEG和PNG（WEBP需要4.0以上，这里不区分版本）
+     */
+    private static boolean isRegionDecodable(String mimeType) {
+        return "image/jpeg".equals(mimeType) || "image/png".equals(mimeType);
+    }
+
+    /**
+     * 分块解码：按水平条带解码原图，每个条带采样后缩放绘制到结果图片中
+     * <p>
+     * 结果图片直接按目标尺寸分配，同一时刻只存在结果图片和一个条带，
+     * 峰值内存不超过结果图片加上{@link DecodeSpec#getTileBytes()}，与原图的尺寸无关
+     * </p>
+     *
+     * @param filePath
+     * @param width    原图宽度
+     * @param height   原图高度
+     * @param orientation EXIF方向，条带绘制时直接旋转到结果图片中
+     * @param config   结果图片和条带的格式
+     * @param spec
+     * @return 宽高按目标尺寸精确缩放并且方向正确的图片
+     * @throws IOException 原图不支持分块解码
+     */
+    private static Bitmap decodeTiledBitmapFromFile(String filePath, int width, int height, int orientation,
+                                                    Bitmap.Config config, DecodeSpec spec) throws IOException {
+        boolean transposed = isTransposed(orientation);
+        float scale = Math.max(1, transposed ? getTargetScale(height, width, spec)
+                : getTargetScale(width, height, spec));
+        // 旋转前方向上的目标尺寸
+        int dstWidth = Math.max(1, (int) (width / scale));
+        int dstHeight = Math.max(1, (int) (height / scale));
+        // 条带按不低于结果的分辨率采样，剩余的缩放在绘制时完成
+        int sampleSize = Math.max(1, Integer.highestOneBit((int) scale));
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        int stripHeight = (int) Math.max(1, spec.getTileBytes() / (sampledWidth * BYTES_PER_PIXEL)) * sampleSize;
+
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(filePath, false);
+        BitmapPool pool = spec.getBitmapPool();
+        int outWidth = transposed ? dstHeight : dstWidth;
+        int outHeight = transposed ? dstWidth : dstHeight;
+        Bitmap dst = pool != null ? pool.getOrCreate(outWidth, outHeight, config)
+                : Bitmap.createBitmap(outWidth, outHeight, config);
+        Bitmap strip = null;
+        boolean succeeded = false;
+        try {
+            dst.eraseColor(Color.TRANSPARENT);
+            Canvas canvas = new Canvas(dst);
+            canvas.concat(getOrientationMatrix(orientation, dstWidth, dstHeight));
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            // 只有可变的图片才能作为inBitmap被下一个条带复用
+            options.inMutable = true;
+            for (int top = 0; top < height; top += stripHeight) {
+                int bottom = Math.min(height, top + stripHeight);
+                // 最后一个条带较矮，复用时解码器只覆盖图片的上半部分，下面残留上一个条带的像素，因此不复用
+                boolean reusable = bottom - top == stripHeight;
+                strip = decodeRegion(decoder, new Rect(0, top, width, bottom), options, strip, reusable);
+                if (strip == null) {
+                    throw new IOException("Failed to decode region of " + filePath);
+                }
+                // 目标位置按整数行计算，相邻条带首尾相接，不会出现缝隙
+                Rect target = new Rect(0, (int) ((long) top * dstHeight / height),
+                        dstWidth, (int) ((long) bottom * dstHeight / height));
+                canvas.drawBitmap(strip, null, target, paint);
+            }
+            succeeded = true;
+        } finally {
+            if (strip != null) {
+                strip.recycle();
+            }
+            decoder.recycle();
+            // 任何异常（包括解码器抛出的运行时异常和OOM）都要释放结果图片
+            if (!succeeded) {
+                if (pool != null) {
+                    pool.put(dst);
+                } else {
+                    dst.recycle();
+                }
+            }
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Decoded " + filePath + " by tiles, " + width + "x" + height + " -> " + outWidth + "x"
+                    + outHeight + " " + config + ", orientation " + orientation + ", strip " + stripHeight + " rows");
+        }
+        return dst;
+    }
+
+    /**
+     * 解码原图的一部分，尺寸相同的条带复用上一个条带的图片
+     *
+     * @param reusable 区域与上一个条带的尺寸相同，可以复用上一个条带的图片
+     */
+    private static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect rect, BitmapFactory.Options options,
+                                       Bitmap reuse, boolean reusable) {
+        if (reuse != null && reusable && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            options.inBitmap = reuse;
+            try {
+                return decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                // 复用的图片不满足解码要求，不复用重新解码
+            } finally {
+                options.inBitmap = null;
+            }
+        }
+        if (reuse != null) {
+            reuse.recycle();
+        }
+        return decoder.decodeRegion(rect, options);
+    }
+
+    /**
+     * 按宽高比上限裁剪并加载图片，只解码裁剪后的区域
+     * <p>
+     * 长边方向上选择细节（边缘）最多的位置，细节分布均匀时居中裁剪。适合生成缩略图，
+     * 超长的截图和全景图不会被压缩成一条细线。结果不小于目标尺寸，与
+     * {@link DecodeSpec.SampleMode#POWER_OF_TWO}相同
+     * </p>
+     *
+     * @param filePath
+     * @param maxAspectRatio 长边与短边之比的上限
+     * @param spec
+     * @return 解码失败时返回null
+     */
+    public static Bitmap decodeCroppedBitmapFromFile(String filePath, float maxAspectRatio, DecodeSpec spec) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeResource(res, resId, options);
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-        // Decode bitmap with inSampleSize set
+        BitmapFactory.decodeFile(filePath, options);
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Rect crop = getCropRect(width, height, maxAspectRatio, null);
+        if (crop == null) {
+            return decodeSampledBitmapFromFile(filePath, spec);
+        }
+
+        Bitmap preview = decodePreview(filePath, width, height);
+        if (preview != null) {
+            crop = getCropRect(width, height, maxAspectRatio, preview);
+            preview.recycle();
+        }
+
+        // 在原图的方向上裁剪，宽高比上限与方向无关；目标尺寸针对旋转后的图片
+        final int orientation = getExifOrientation(filePath, options.outMimeType);
+        final boolean transposed = isTransposed(orientation);
+        BitmapFactory.Options regionOptions = new BitmapFactory.Options();
+        regionOptions.outWidth = transposed ? crop.height() : crop.width();
+        regionOptions.outHeight = transposed ? crop.width() : crop.height();
+        applyDecodeSpec(regionOptions, new DecodeSpec(spec.reqWidth, spec.reqHeight)
+                .setSampleMode(DecodeSpec.SampleMode.POWER_OF_TWO)
+                .setMaxBytes(spec.getMaxBytes()));
+        applyConfig(regionOptions, spec, isOpaqueFile(filePath, spec));
+        if (isRegionDecodable(options.outMimeType)) {
+            try {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(filePath, false);
+                try {
+                    return orientBitmap(decoder.decodeRegion(crop, regionOptions), orientation, spec);
+                } finally {
+                    decoder.recycle();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Can not decode region of " + filePath + ", crop after decoding.", e);
+            }
+        }
+
+        // 不支持区域解码的格式按相同的采样比例解码整图后再裁剪
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res, resId, options);
+        options.inSampleSize = regionOptions.inSampleSize;
+        options.inPreferredConfig = regionOptions.inPreferredConfig;
+        Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
+        if (bitmap == null) {
+            return null;
+        }
+        int sampleSize = regionOptions.inSampleSize;
+        Bitmap cropped = Bitmap.createBitmap(bitmap, crop.left / sampleSize, crop.top / sampleSize,
+                Math.min(bitmap.getWidth() - crop.left / sampleSize, crop.width() / sampleSize),
+                Math.min(bitmap.getHeight() - crop.top / sampleSize, crop.height() / sampleSize));
+        if (cropped != bitmap) {
+            bitmap.recycle();
+        }
+        return orientBitmap(cropped, orientation, spec);
     }
 
-    public static Bitmap decodeSampledBitmapFromStream(InputStream stream, int reqWidth, int reqHeight) {
+    /**
+     * 按宽高比上限裁剪图片，裁剪位置的选择与{@link #decodeCroppedBitmapFromFile}相同
+     *
+     * @param src            原图，不会被回收
+     * @param maxAspectRatio 长边与短边之比的上限
+     * @return 不需要裁剪时返回原图
+     */
+    public static Bitmap cropBitmap(Bitmap src, float maxAspectRatio) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        if (getCropRect(width, height, maxAspectRatio, null) == null) {
+            return src;
+        }
+
+        float scale = (float) SALIENCY_PREVIEW_SIZE / Math.max(width, height);
+        Bitmap preview = Bitmap.createScaledBitmap(src, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), true);
+        Rect crop = getCropRect(width, height, maxAspectRatio, preview);
+        if (preview != src) {
+            preview.recycle();
+        }
+        return Bitmap.createBitmap(src, crop.left, crop.top, crop.width(), crop.height());
+    }
+
+    /**
+     * 解码长边不超过{@link #SALIENCY_PREVIEW_SIZE}两倍的预览图，JPEG按采样比例解码的开销很小
+     */
+    private static Bitmap decodePreview(String filePath, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = Math.max(1, Integer.highestOneBit(Math.max(width, height) / SALIENCY_PREVIEW_SIZE));
+        return BitmapFactory.decodeFile(filePath, options);
+    }
+
+    /**
+     * 计算裁剪区域
+     *
+     * @param preview 按比例缩小的原图，为null时居中裁剪
+     * @return 宽高比没有超出上限、不需要裁剪时返回null
+     */
+    private static Rect getCropRect(int width, int height, float maxAspectRatio, Bitmap preview) {
+        boolean horizontal = width > height;
+        int longSide = Math.max(width, height);
+        int shortSide = Math.min(width, height);
+        int window = Math.max(1, (int) (shortSide * maxAspectRatio));
+        if (maxAspectRatio <= 0 || longSide <= window) {
+            return null;
+        }
+
+        int offset = (longSide - window) / 2;
+        if (preview != null) {
+            int previewLong = horizontal ? preview.getWidth() : preview.getHeight();
+            int previewWindow = Math.max(1, (int) ((long) window * previewLong / longSide));
+            int previewOffset = findSalientOffset(preview, horizontal, previewWindow);
+            offset = Math.min(longSide - window, (int) ((long) previewOffset * longSide / previewLong));
+        }
+        return horizontal ? new Rect(offset, 0, offset + window, height) : new Rect(0, offset, width, offset + window);
+    }
+
+    /**
+     * 沿长边滑动窗口，找出窗口内边缘能量（相邻像素亮度差之和）最大的位置
+     *
+     * @param preview    预览图
+     * @param horizontal 是否沿水平方向滑动
+     * @param window     窗口在预览图中的长度
+     * @return 窗口在预览图中的起始位置
+     */
+    static int findSalientOffset(Bitmap preview, boolean horizontal, int window) {
+        int width = preview.getWidth();
+        int height = preview.getHeight();
+        int length = horizontal ? width : height;
+        if (window >= length) {
+            return 0;
+        }
+
+        int[] pixels = new int[width * height];
+        preview.getPixels(pixels, 0, width, 0, 0, width, height);
+        // 每一列（水平滑动时）或每一行的边缘能量
+        long[] energy = new long[length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = luma(pixels[y * width + x]);
+                int dx = x + 1 < width ? Math.abs(luma - luma(pixels[y * width + x + 1])) : 0;
+                int dy = y + 1 < height ? Math.abs(luma - luma(pixels[(y + 1) * width + x])) : 0;
+                energy[horizontal ? x : y] += dx + dy;
+            }
+        }
+
+        long sum = 0;
+        for (int i = 0; i < window; i++) {
+            sum += energy[i];
+        }
+        long[] windowEnergy = new long[length - window + 1];
+        windowEnergy[0] = sum;
+        for (int i = 1; i < windowEnergy.length; i++) {
+            sum += energy[i + window - 1] - energy[i - 1];
+            windowEnergy[i] = sum;
+        }
+
+        int best = (length - window) / 2;
+        double bestEnergy = windowEnergy[best] * (1 + CENTER_BIAS);
+        for (int i = 0; i < windowEnergy.length; i++) {
+            if (windowEnergy[i] > bestEnergy) {
+                best = i;
+                bestEnergy = windowEnergy[i];
+            }
+        }
+        return best;
+    }
+
+    private static int luma(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+    }
+
+    public static Bitmap decodeSampledBitmapFromResource(Resources res, int resId, int reqWidth, int reqHeight) {
+        return decodeSampledBitmapFromResource(res, resId, new DecodeSpec(reqWidth, reqHeight));
+    }
+
+    public static Bitmap decodeSampledBitmapFromResource(Resources res, int resId, DecodeSpec spec) {
         // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(stream, null, options);
+        // 读取原始像素尺寸，不按资源目录的density缩放
+        options.inScaled = false;
+        BitmapFactory.decodeResource(res, resId, options);
         // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        applyDecodeSpec(options, spec);
+        applyConfig(options, spec, isOpaqueResource(res, resId, spec));
+        applyBitmapPool(options, spec);
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeStream(stream, null, options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeResource(res, resId, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的图片不满足解码要求，不复用重新解码
+            releaseInBitmap(options, spec);
+            bitmap = BitmapFactory.decodeResource(res, resId, options);
+        }
+        return finishDecode(bitmap, options, spec);
     }
 
-    public static byte[] bitmap2Bytes(Bitmap bitmap) {
-        return bitmap2Bytes(bitmap, false);
+    private static boolean isOpaqueResource(Resources res, int resId, DecodeSpec spec) {
+        if (!spec.isRgb565Allowed()) {
+            return false;
+        }
+        try {
+            InputStream input = res.openRawResource(resId);
+            try {
+                return isOpaque(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can not read header of resource " + resId, e);
+            return false;
+        }
     }
 
-    public static byte[] bitmap2Bytes(final Bitmap bmp, final boolean needRecycle) {
-        if (bmp == null) {
-            return null;
-        }
+    /**
+     * 根据图片占用的内存估算编码结果的大小，用于预先分配缓冲区
+     */
+    static int estimateEncodedSize(Bitmap bitmap, Bitmap.CompressFormat format) {
+        int raw = bitmap.getByteCount();
+        int estimate = format == Bitmap.CompressFormat.PNG ? raw / PNG_COMPRESS_RATIO : raw / LOSSY_COMPRESS_RATIO;
+        return Math.max(estimate, MIN_ENCODE_BUFFER_SIZE);
+    }
 
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.PNG, 100, output);
-        if (needRecycle) {
-            bmp.recycle();
-        }
+    /**
+     * 将图片编码到可复用的缓冲区中，编码结果的长度为{@link PooledByteArrayOutputStream#size()}
+     *
+     * @param bitmap
+     * @param format
+     * @param quality
+     * @return 使用完后需要调用{@link PooledByteArrayOutputStream#release()}
+     */
+    public static PooledByteArrayOutputStream encode(Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+        PooledByteArrayOutputStream output = PooledByteArrayOutputStream.obtain(estimateEncodedSize(bitmap, format));
+        bitmap.compress(format, quality, output);
+        return output;
+    }
 
-        byte[] result = output.toByteArray();
-        try {
-            output.close();
-        } catch (Exception e) {
-        }
+    /**
+     * 将图片编码到调用者提供的缓冲区中，缓冲区原有内容会被清空
+     *
+     * @param bitmap
+     * @param format
+     * @param quality
+     * @param output
+     * @return 编码结果的长度
+     */
+    public static int encode(Bitmap bitmap, Bitmap.CompressFormat format, int quality, ByteArrayOutputStream output) {
+        output.reset();
+        bitmap.compress(format, quality, output);
+        return output.size();
+    }
 
-        return result;
+    /**
+     * 将图片直接编码到输出流中，不经过中间缓冲区
+     *
+     * @param bitmap
+     * @param format
+     * @param quality
+     * @param output 调用者负责关闭
+     * @throws IOException 编码失败
+     */
+    public static void encode(Bitmap bitmap, Bitmap.CompressFormat format, int quality, OutputStream output)
+            throws IOException {
+        if (!bitmap.compress(format, quality, output)) {
+            throw new IOException("Failed to compress bitmap.");
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * 将图片直接编码到文件中
+     *
+     * @param bitmap
+     * @param format
+     * @param quality
+     * @param channel 调用者负责关闭
+     * @return 写入的字节数
+     * @throws IOException 编码或写入失败
+     */
+    public static long encode(Bitmap bitmap, Bitmap.CompressFormat format, int quality, FileChannel channel)
+            throws IOException {
+        long start = channel.position();
+        OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), CHANNEL_BUFFER_SIZE);
+        encode(bitmap, format, quality, output);
+        output.flush();
+        return channel.position() - start;
+    }
+}
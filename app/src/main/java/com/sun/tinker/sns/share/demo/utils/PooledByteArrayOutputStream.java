@@ -0,0 +1,104 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * 缓冲区可以复用的ByteArrayOutputStream
+ * <p>
+ * 通过{@link #obtain(int)}获取，使用完后调用{@link #release()}归还缓冲区。可以直接通过{@link #getBuffer()}
+ * 和{@link #size()}读取编码结果，避免{@link #toByteArray()}的额外复制
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final LinkedList<byte[]> sPool = new LinkedList<byte[]>();
+
+    private PooledByteArrayOutputStream(byte[] buffer) {
+        super(0);
+        buf = buffer;
+    }
+
+    /**
+     * 获取一个容量不小于capacity的输出流，优先复用已归还的缓冲区
+     *
+     * @param capacity 预计写入的字节数
+     * @return
+     */
+    public static PooledByteArrayOutputStream obtain(int capacity) {
+        byte[] buffer = null;
+        synchronized (sPool) {
+            Iterator<byte[]> iterator = sPool.iterator();
+            while (iterator.hasNext()) {
+                byte[] candidate = iterator.next();
+                if (candidate.length >= capacity && (buffer == null || candidate.length < buffer.length)) {
+                    buffer = candidate;
+                }
+            }
+            if (buffer != null) {
+                sPool.remove(buffer);
+            }
+        }
+        return new PooledByteArrayOutputStream(buffer != null ? buffer : new byte[capacity]);
+    }
+
+    /**
+     * 内部缓冲区，有效数据为[0, size())，归还后不能再使用
+     *
+     * @return
+     */
+    public synchronized byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * 将内容写入到channel，不产生额外复制
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public synchronized void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 归还缓冲区，归还后不能再使用此输出流
+     */
+    public synchronized void release() {
+        byte[] buffer = buf;
+        buf = EMPTY;
+        count = 0;
+        if (buffer.length == 0 || buffer.length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+
+        synchronized (sPool) {
+            if (sPool.size() >= MAX_POOLED_BUFFERS) {
+                // 淘汰最小的缓冲区，大缓冲区可以满足更多请求
+                byte[] smallest = buffer;
+                for (byte[] candidate : sPool) {
+                    if (candidate.length < smallest.length) {
+                        smallest = candidate;
+                    }
+                }
+                if (smallest == buffer) {
+                    return;
+                }
+                sPool.remove(smallest);
+            }
+            sPool.add(buffer);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 按内容寻址的派生图片磁盘缓存
+ * <p>
+ * 以原图内容的SHA-1和{@link RenditionProfile}作为key，同一张图片按同一规格只会缩放和编码一次，
+ * 重复分享和进程重启后都直接使用缓存文件。缓存放在外部缓存目录中（QQ需要读取分享的文件），
+ * 文件名由内容决定，同时进行的分享不会互相覆盖；超出大小限制时按最近使用时间删除
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class RenditionCache {
+    private static final String TAG = "RenditionCache";
+
+    private static final String CACHE_DIR = "share_renditions";
+    private static final long MAX_CACHE_BYTES = 30 * 1024 * 1024;
+    private static final int HASH_CACHE_SIZE = 64;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int LOCK_COUNT = 16;
+
+    private static RenditionCache sInstance;
+    private static volatile Listener sListener;
+
+    private final File mCacheDir;
+    private final long mMaxCacheBytes;
+    private final BitmapPool mPool;
+
+    /**
+     * 文件路径、大小和修改时间到内容hash的映射，同一文件不需要重复计算hash
+     */
+    private final LruCache<String, String> mFileHashes = new LruCache<String, String>(HASH_CACHE_SIZE);
+
+    /**
+     * 图片到内容hash的映射，图片内容变化后（generationId改变）重新计算，重复分享同一图片对象时不需要再读取像素
+     */
+    private final Map<Bitmap, String> mBitmapHashes = Collections.synchronizedMap(new WeakHashMap<Bitmap, String>());
+
+    /**
+     * 同一派生图片的生成串行进行
+     */
+    private final StripedLocks mLocks = new StripedLocks(LOCK_COUNT);
+
+    RenditionCache(File cacheDir, long maxCacheBytes, BitmapPool pool) {
+        mCacheDir = cacheDir;
+        mMaxCacheBytes = maxCacheBytes;
+        mPool = pool;
+    }
+
+    public static synchronized RenditionCache getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            File root = appContext.getExternalCacheDir();
+            if (root == null) {
+                root = appContext.getCacheDir();
+            }
+            sInstance = new RenditionCache(new File(root, CACHE_DIR), MAX_CACHE_BYTES, BitmapPool.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * 设置生成派生图片的监听，用于统计解码和编码的耗时
+     *
+     * @param listener 为null时不统计
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * 获取派生图片文件，不存在时生成，需要在后台线程中调用
+     *
+     * @param source  原图
+     * @param profile 派生规格
+     * @return 缓存文件
+     * @throws IOException 原图无法读取或者无法写入缓存
+     */
+    public File getFile(Source source, RenditionProfile profile) throws IOException {
+        String key = source.getHash(this) + "_" + profile.getKey();
+        File file = new File(mCacheDir, key + "." + profile.format.name().toLowerCase());
+        synchronized (mLocks.get(key)) {
+            if (file.isFile() && file.length() > 0) {
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            Bitmap cropped = source.getCroppedBitmap(profile, mPool);
+            Bitmap bitmap = cropped != null ? cropped
+                    : source.getBitmap(profile.maxDimension, profile.rgb565Allowed, mPool);
+            long decodeTime = SystemClock.elapsedRealtime() - start;
+            try {
+                ThumbnailEncoder.Result result = write(file, new ThumbnailEncoder(profile, mPool), bitmap);
+                Log.d(TAG, "Created rendition " + profile + " from " + bitmap.getConfig() + " "
+                        + bitmap.getByteCount() + " bytes: " + result);
+                Listener listener = sListener;
+                if (listener != null) {
+                    listener.onRenditionCreated(profile, decodeTime, result);
+                }
+            } finally {
+                if (cropped != null) {
+                    mPool.put(cropped);
+                }
+            }
+        }
+        DiskCacheUtil.trim(mCacheDir, mMaxCacheBytes, null);
+        return file;
+    }
+
+    /**
+     * 获取派生图片的内容，需要在后台线程中调用
+     * <p>
+     * 原图是文件并且已经满足规格（格式、宽高和大小）时直接使用原文件的内容，不经过解码和重新编码
+     * </p>
+     */
+    public byte[] getBytes(Source source, RenditionProfile profile) throws IOException {
+        File sourceFile = findSatisfyingSource(source, profile);
+        return readBytes(sourceFile != null ? sourceFile : getFile(source, profile));
+    }
+
+    /**
+     * 原图是文件并且已经满足规格（格式、宽高和大小）时返回原文件，可以直接使用而不经过解码和重新编码
+     *
+     * @return 原图不是文件或者不满足规格时返回null
+     */
+    public File findSatisfyingSource(Source source, RenditionProfile profile) {
+        File sourceFile = source.getFile();
+        if (sourceFile == null) {
+            return null;
+        }
+        ImageHeader header = source.getHeader();
+        if (header == null || !header.satisfies(profile)) {
+            return null;
+        }
+        Log.d(TAG, "Use source for " + profile + ": " + header);
+        return sourceFile;
+    }
+
+    /**
+     * 把文件内容直接读入大小正好的数组，不经过映射或流的中间缓冲区。SDK只接受byte[]，
+     * 从页缓存到数组的这一次复制无法避免
+     */
+    private static byte[] readBytes(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            byte[] data = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("File truncated while reading: " + file);
+                }
+            }
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 编码结果直接写入临时文件再重命名，进程中途退出时不会留下不完整的缓存
+     */
+    private ThumbnailEncoder.Result write(File file, ThumbnailEncoder encoder, Bitmap bitmap) throws IOException {
+        DiskCacheUtil.ensureDir(mCacheDir);
+        File temp = DiskCacheUtil.tempFile(file);
+        FileOutputStream output = new FileOutputStream(temp);
+        ThumbnailEncoder.Result result;
+        boolean written = false;
+        try {
+            result = encoder.encode(bitmap, output);
+            output.getFD().sync();
+            written = true;
+        } finally {
+            output.close();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        try {
+            DiskCacheUtil.commit(temp, file);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        return result;
+    }
+
+    String hashFile(File file) throws IOException {
+        String identity = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        String hash = mFileHashes.get(identity);
+        if (hash != null) {
+            return hash;
+        }
+
+        MessageDigest digest = newDigest();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        hash = DiskCacheUtil.toHex(digest.digest());
+        mFileHashes.put(identity, hash);
+        return hash;
+    }
+
+    String hashBitmap(Bitmap bitmap) {
+        String generation = bitmap.getGenerationId() + ":";
+        String cached = mBitmapHashes.get(bitmap);
+        if (cached != null && cached.startsWith(generation)) {
+            return cached.substring(generation.length());
+        }
+
+        String hash = digestPixels(bitmap);
+        mBitmapHashes.put(bitmap, generation + hash);
+        return hash;
+    }
+
+    private static String digestPixels(Bitmap bitmap) {
+        MessageDigest digest = newDigest();
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        digest.update((width + "x" + height + "/" + bitmap.getConfig()).getBytes());
+
+        int[] row = new int[width];
+        ByteBuffer buffer = ByteBuffer.allocate(width * 4);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            buffer.clear();
+            buffer.asIntBuffer().put(row);
+            digest.update(buffer.array());
+        }
+        return DiskCacheUtil.toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 生成了一张派生图片，在生成的线程中回调
+         *
+         * @param profile    派生规格
+         * @param decodeTime 获取原图的耗时，原图已经解码过时接近0
+         * @param result     编码结果
+         */
+        void onRenditionCreated(RenditionProfile profile, long decodeTime, ThumbnailEncoder.Result result);
+    }
+
+    /**
+     * 派生图片的原图，可以是编码后的图片文件或者已经解码的图片
+     * <p>
+     * 同一个Source生成多种规格时，内容hash只计算一次，解码得到的图片也会复用；
+     * 使用完后调用{@link #release()}归还解码得到的图片
+     * </p>
+     */
+    public static final class Source {
+        private final File mFile;
+        private final Bitmap mBitmap;
+
+        private String mHash;
+        private ImageHeader mHeader;
+        private boolean mHeaderRead;
+        private Boolean mHasAlpha;
+        private BitmapPool mPool;
+        private Bitmap mDecoded;
+        private int mDecodedDimension;
+        private boolean mDecodedRgb565Allowed;
+
+        private Source(File file, Bitmap bitmap) {
+            mFile = file;
+            mBitmap = bitmap;
+        }
+
+        /**
+         * @param file 编码后的图片文件
+         */
+        public static Source fromFile(File file) {
+            return new Source(file, null);
+        }
+
+        /**
+         * @param bitmap 图片，不会被修改或回收
+         */
+        public static Source fromBitmap(Bitmap bitmap) {
+            return new Source(null, bitmap);
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * 原图文件的头信息，只读取一次
+         *
+         * @return 原图不是文件或者无法识别时返回null
+         */
+        synchronized ImageHeader getHeader() {
+            if (!mHeaderRead && mFile != null) {
+                mHeader = ImageHeader.read(mFile);
+                mHeaderRead = true;
+            }
+            return mHeader;
+        }
+
+        /**
+         * 原图是否可能带透明像素，原图是文件时根据文件头判断，只读取一次。需要在后台线程中调用
+         *
+         * @return 无法判断时返回true
+         */
+        public synchronized boolean hasAlpha() {
+            if (mBitmap != null) {
+                return mBitmap.hasAlpha();
+            }
+            if (mHasAlpha == null) {
+                mHasAlpha = !isOpaqueFile(mFile);
+            }
+            return mHasAlpha;
+        }
+
+        private static boolean isOpaqueFile(File file) {
+            try {
+                InputStream input = new FileInputStream(file);
+                try {
+                    return ImageUtil.isOpaque(input);
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Can not read header of " + file, e);
+                return false;
+            }
+        }
+
+        synchronized String getHash(RenditionCache cache) throws IOException {
+            if (mHash == null) {
+                mHash = mFile != null ? cache.hashFile(mFile) : cache.hashBitmap(mBitmap);
+            }
+            return mHash;
+        }
+
+        /**
+         * 获取宽高不小于maxDimension（原图更小时为原图尺寸）的图片，已经解码过足够大的图片时直接复用；
+         * 不接受RGB_565时不复用可能以RGB_565解码的图片
+         */
+        synchronized Bitmap getBitmap(int maxDimension, boolean rgb565Allowed, BitmapPool pool) throws IOException {
+            if (mBitmap != null) {
+                return mBitmap;
+            }
+            if (mDecoded != null && mDecodedDimension >= maxDimension && (rgb565Allowed || !mDecodedRgb565Allowed)) {
+                return mDecoded;
+            }
+
+            release();
+            DecodeSpec spec = new DecodeSpec(maxDimension, maxDimension)
+                    .setSampleMode(DecodeSpec.SampleMode.POWER_OF_TWO)
+                    .setTileBytes(DecodeSpec.DEFAULT_TILE_BYTES)
+                    .setRgb565Allowed(rgb565Allowed)
+                    .setBitmapPool(pool);
+            Bitmap bitmap = ImageUtil.decodeSampledBitmapFromFile(mFile.getAbsolutePath(), spec);
+            if (bitmap == null) {
+                throw new IOException("Failed to decode image: " + mFile);
+            }
+            mPool = pool;
+            mDecoded = bitmap;
+            mDecodedDimension = maxDimension;
+            mDecodedRgb565Allowed = rgb565Allowed;
+            return bitmap;
+        }
+
+        /**
+         * 按派生规格的宽高比上限裁剪原图，原图是文件时只解码裁剪后的区域
+         *
+         * @return 不需要裁剪时返回null，否则返回新的图片，使用完后由调用者归还复用池
+         */
+        synchronized Bitmap getCroppedBitmap(RenditionProfile profile, BitmapPool pool) throws IOException {
+            Bitmap src = mBitmap != null ? mBitmap : mDecoded;
+            if (src != null) {
+                if (!profile.needsCrop(src.getWidth(), src.getHeight())) {
+                    return null;
+                }
+                // 已经有足够大并且格式可以接受的图片时直接在内存中裁剪
+                if (mBitmap != null || (mDecodedDimension >= profile.maxDimension
+                        && (profile.rgb565Allowed || !mDecodedRgb565Allowed))) {
+                    return ImageUtil.cropBitmap(src, profile.maxAspectRatio);
+                }
+            }
+
+            ImageHeader header = getHeader();
+            if (header == null || !profile.needsCrop(header.width, header.height)) {
+                return null;
+            }
+            DecodeSpec spec = new DecodeSpec(profile.maxDimension, profile.maxDimension)
+                    .setRgb565Allowed(profile.rgb565Allowed)
+                    .setBitmapPool(pool);
+            Bitmap bitmap = ImageUtil.decodeCroppedBitmapFromFile(mFile.getAbsolutePath(), profile.maxAspectRatio, spec);
+            if (bitmap == null) {
+                throw new IOException("Failed to decode image: " + mFile);
+            }
+            return bitmap;
+        }
+
+        /**
+         * 归还解码得到的图片，不会回收通过{@link #fromBitmap(Bitmap)}传入的图片
+         */
+        public synchronized void release() {
+            if (mDecoded != null) {
+                if (mPool != null) {
+                    mPool.put(mDecoded);
+                }
+                mDecoded = null;
+                mDecodedDimension = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+
+/**
+ * 分享图片的派生规格：最大边长、编码格式、压缩质量上限、字节数上限、宽高比上限和是否接受RGB_565
+ * <p>
+ * 各平台以常量的形式声明自己需要的规格，由{@link RenditionCache}按规格生成并缓存
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class RenditionProfile {
+    /**
+     * 不限制编码结果的字节数，只有这时才能使用PNG
+     */
+    public static final int NO_BYTE_LIMIT = 0;
+
+    public final String name;
+    public final int maxDimension;
+    public final Bitmap.CompressFormat format;
+    public final int quality;
+    public final int maxBytes;
+    /**
+     * 长边与短边之比的上限，超出时裁剪掉细节最少的部分，小于等于0表示不裁剪
+     */
+    public final float maxAspectRatio;
+    /**
+     * 是否可以从RGB_565解码的原图生成，只影响不透明的原图
+     */
+    public final boolean rgb565Allowed;
+
+    /**
+     * @param name         名称，只能包含字母、数字和下划线
+     * @param maxDimension 宽高的最大值
+     * @param format       编码格式，PNG不能通过质量控制大小，只能与{@link #NO_BYTE_LIMIT}一起使用
+     * @param quality      压缩质量的上限，超出字节数上限时会降低
+     * @param maxBytes     编码结果的最大字节数，{@link #NO_BYTE_LIMIT}表示不限制
+     */
+    public RenditionProfile(String name, int maxDimension, Bitmap.CompressFormat format, int quality, int maxBytes) {
+        this(name, maxDimension, format, quality, maxBytes, 0, false);
+    }
+
+    private RenditionProfile(String name, int maxDimension, Bitmap.CompressFormat format, int quality, int maxBytes,
+                             float maxAspectRatio, boolean rgb565Allowed) {
+        if (format == Bitmap.CompressFormat.PNG && maxBytes > NO_BYTE_LIMIT) {
+            throw new IllegalArgumentException("PNG can not be compressed to a byte budget.");
+        }
+        this.name = name;
+        this.maxDimension = maxDimension;
+        this.format = format;
+        this.quality = quality;
+        this.maxBytes = maxBytes;
+        this.maxAspectRatio = maxAspectRatio;
+        this.rgb565Allowed = rgb565Allowed;
+    }
+
+    /**
+     * 使用新的字节数上限
+     */
+    public RenditionProfile withMaxBytes(int maxBytes) {
+        return new RenditionProfile(name, maxDimension, format, quality, maxBytes, maxAspectRatio, rgb565Allowed);
+    }
+
+    /**
+     * 使用新的宽高比上限
+     */
+    public RenditionProfile withMaxAspectRatio(float maxAspectRatio) {
+        return new RenditionProfile(name, maxDimension, format, quality, maxBytes, maxAspectRatio, rgb565Allowed);
+    }
+
+    /**
+     * 允许不透明的原图解码为RGB_565，解码时内存减半，适合平台还会再次压缩的图片
+     */
+    public RenditionProfile withRgb565Allowed(boolean allowed) {
+        return new RenditionProfile(name, maxDimension, format, quality, maxBytes, maxAspectRatio, allowed);
+    }
+
+    /**
+     * 是否限制编码结果的字节数
+     */
+    public boolean hasByteLimit() {
+        return maxBytes > NO_BYTE_LIMIT;
+    }
+
+    /**
+     * 指定宽高的图片是否需要裁剪
+     */
+    public boolean needsCrop(int width, int height) {
+        return maxAspectRatio > 0 && Math.max(width, height) > Math.min(width, height) * maxAspectRatio;
+    }
+
+    /**
+     * 缓存的key，任一参数变化都会生成新的派生图片
+     */
+    String getKey() {
+        String key = name + "_" + maxDimension + "_" + format.name().toLowerCase() + "_" + quality + "_" + maxBytes;
+        if (maxAspectRatio > 0) {
+            key += "_crop" + Math.round(maxAspectRatio * 100);
+        }
+        return rgb565Allowed ? key + "_565" : key;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
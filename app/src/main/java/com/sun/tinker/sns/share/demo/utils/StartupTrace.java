@@ -0,0 +1,124 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 界面启动耗时记录
+ * <p>
+ * 每个阶段同时输出为systrace中的section（API 18以上），并记录耗时，便于在日志和基准测试中查看。
+ * 时间均使用{@link SystemClock#elapsedRealtime()}，只能在主线程中使用
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class StartupTrace {
+    private static final boolean TRACE_ENABLED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private final String mName;
+    private final long mStartTime;
+    private final Map<String, Long> mPhases = new LinkedHashMap<String, Long>();
+
+    private String mCurrentPhase;
+    private long mCurrentPhaseStart;
+    private long mTotalMillis = -1;
+
+    /**
+     * @param name      名称，作为section的前缀
+     * @param startTime 启动开始的时间，例如发起跳转的时间
+     */
+    public StartupTrace(String name, long startTime) {
+        mName = name;
+        mStartTime = startTime;
+    }
+
+    /**
+     * 开始一个阶段，会先结束还未结束的阶段
+     *
+     * @param phase 阶段名称
+     */
+    public void beginPhase(String phase) {
+        endPhase();
+        mCurrentPhase = phase;
+        mCurrentPhaseStart = SystemClock.elapsedRealtime();
+        beginSection(mName + ":" + phase);
+    }
+
+    /**
+     * 结束当前阶段
+     */
+    public void endPhase() {
+        if (mCurrentPhase == null) {
+            return;
+        }
+        endSection();
+        mPhases.put(mCurrentPhase, SystemClock.elapsedRealtime() - mCurrentPhaseStart);
+        mCurrentPhase = null;
+    }
+
+    /**
+     * 标记界面已经可以交互，只有第一次调用有效
+     *
+     * @return 从启动开始到现在的耗时
+     */
+    public long markInteractive() {
+        endPhase();
+        if (mTotalMillis < 0) {
+            mTotalMillis = SystemClock.elapsedRealtime() - mStartTime;
+        }
+        return mTotalMillis;
+    }
+
+    public boolean isInteractive() {
+        return mTotalMillis >= 0;
+    }
+
+    /**
+     * @return 从启动开始到可以交互的耗时，还未可以交互时返回-1
+     */
+    public long getTotalMillis() {
+        return mTotalMillis;
+    }
+
+    /**
+     * @param phase 阶段名称
+     * @return 阶段耗时，没有记录时返回-1
+     */
+    public long getPhaseMillis(String phase) {
+        Long millis = mPhases.get(phase);
+        return millis != null ? millis : -1;
+    }
+
+    public Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(mPhases);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(mName).append(": total ").append(mTotalMillis).append("ms");
+        for (Map.Entry<String, Long> entry : mPhases.entrySet()) {
+            builder.append(", ").append(entry.getKey()).append(' ').append(entry.getValue()).append("ms");
+        }
+        return builder.toString();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String section) {
+        if (TRACE_ENABLED) {
+            Trace.beginSection(section);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        if (TRACE_ENABLED) {
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+/**
+ * 按key分段的锁
+ * <p>
+ * 锁的数量固定，不会随着key的增多而增长；不同的key可能落在同一把锁上，这时只是多等待一次，
+ * 持有锁时不能再获取同一组中的其他锁
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+final class StripedLocks {
+    private final Object[] mLocks;
+
+    /**
+     * @param count 锁的数量
+     */
+    StripedLocks(int count) {
+        mLocks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * 获取key对应的锁，同一key总是得到同一个对象
+     */
+    Object get(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return mLocks[(hash & Integer.MAX_VALUE) % mLocks.length];
+    }
+}
@@ -0,0 +1,226 @@
+package com.sun.tinker.sns.share.demo.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 缩略图编码器
+ * <p>
+ * 保持原图宽高比缩放到指定尺寸以内，使用JPEG或WEBP编码，并通过二分查找压缩质量使结果不超过指定字节数，
+ * 例如微信要求thumbData不超过32KB。不限制字节数时只按最高质量编码一次，这时也可以使用PNG
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class ThumbnailEncoder {
+    private static final int MIN_QUALITY = 10;
+    private static final int DEFAULT_MAX_QUALITY = 90;
+
+    /**
+     * 最低质量仍然超出限制时，每次将尺寸缩小到原来的这个比例
+     */
+    private static final float SHRINK_FACTOR = 0.75f;
+    private static final int MIN_SIZE = 16;
+
+    private final int mMaxSize;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mMaxQuality;
+    private final BitmapPool mPool;
+
+    private volatile int mMaxBytes;
+
+    /**
+     * @param maxSize  缩略图宽高的最大值
+     * @param maxBytes 编码结果的最大字节数，{@link RenditionProfile#NO_BYTE_LIMIT}表示不限制
+     * @param format   编码格式，限制字节数时只支持JPEG和WEBP
+     * @param pool     缩略图从复用池中获取，为null时新建
+     */
+    public ThumbnailEncoder(int maxSize, int maxBytes, Bitmap.CompressFormat format, BitmapPool pool) {
+        this(maxSize, maxBytes, format, DEFAULT_MAX_QUALITY, pool);
+    }
+
+    /**
+     * 按派生规格编码
+     *
+     * @param profile 派生规格
+     * @param pool    缩略图从复用池中获取，为null时新建
+     */
+    public ThumbnailEncoder(RenditionProfile profile, BitmapPool pool) {
+        this(profile.maxDimension, profile.maxBytes, profile.format, profile.quality, pool);
+    }
+
+    private ThumbnailEncoder(int maxSize, int maxBytes, Bitmap.CompressFormat format, int maxQuality,
+                             BitmapPool pool) {
+        if (format == Bitmap.CompressFormat.PNG && maxBytes > RenditionProfile.NO_BYTE_LIMIT) {
+            throw new IllegalArgumentException("PNG can not be compressed to a byte budget.");
+        }
+        mMaxSize = maxSize;
+        mMaxBytes = maxBytes;
+        mFormat = format;
+        mMaxQuality = Math.max(MIN_QUALITY, maxQuality);
+        mPool = pool;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 编码缩略图并写入output，不会修改或回收原图
+     * <p>
+     * 结果直接从复用的缓冲区写出，不再复制成新的数组
+     * </p>
+     *
+     * @param source 原图
+     * @param output 编码结果的去向，调用者负责关闭
+     * @return 编码结果的信息
+     * @throws IOException 写入output失败，或者缩小到最小尺寸、最低质量后仍然超出字节数限制，这时不会写入output
+     */
+    public Result encode(Bitmap source, OutputStream output) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int maxBytes = mMaxBytes;
+
+        float scale = Math.min(1f, Math.min((float) mMaxSize / source.getWidth(),
+                (float) mMaxSize / source.getHeight()));
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+
+        if (maxBytes <= RenditionProfile.NO_BYTE_LIMIT) {
+            Bitmap thumb = drawThumb(source, width, height);
+            PooledByteArrayOutputStream encoded;
+            try {
+                encoded = ImageUtil.encode(thumb, mFormat, mMaxQuality);
+            } finally {
+                release(thumb);
+            }
+            try {
+                encoded.writeTo(output);
+                return new Result(encoded.size(), width, height, mMaxQuality, 1,
+                        SystemClock.elapsedRealtime() - start);
+            } finally {
+                encoded.release();
+            }
+        }
+
+        // 两个缓冲区交替使用，满足限制的结果直接交换缓冲区而不复制
+        PooledByteArrayOutputStream buffer = PooledByteArrayOutputStream.obtain(maxBytes);
+        PooledByteArrayOutputStream best = PooledByteArrayOutputStream.obtain(maxBytes);
+        int passes = 0;
+        try {
+            while (true) {
+                Bitmap thumb = drawThumb(source, width, height);
+                int bestQuality = 0;
+                // buffer中最后一次超出限制的编码结果所用的质量
+                int lastQuality = mMaxQuality;
+                try {
+                    // 先用最高质量尝试，大多数缩略图一次即可满足限制
+                    passes++;
+                    if (ImageUtil.encode(thumb, mFormat, mMaxQuality, buffer) <= maxBytes) {
+                        buffer.writeTo(output);
+                        return new Result(buffer.size(), width, height, mMaxQuality, passes,
+                                SystemClock.elapsedRealtime() - start);
+                    }
+
+                    int low = MIN_QUALITY;
+                    int high = mMaxQuality - 1;
+                    while (low <= high) {
+                        int quality = (low + high) >>> 1;
+                        passes++;
+                        if (ImageUtil.encode(thumb, mFormat, quality, buffer) <= maxBytes) {
+                            PooledByteArrayOutputStream swap = best;
+                            best = buffer;
+                            buffer = swap;
+                            bestQuality = quality;
+                            low = quality + 1;
+                        } else {
+                            lastQuality = quality;
+                            high = quality - 1;
+                        }
+                    }
+                } finally {
+                    release(thumb);
+                }
+
+                if (bestQuality > 0) {
+                    best.writeTo(output);
+                    return new Result(best.size(), width, height, bestQuality, passes,
+                            SystemClock.elapsedRealtime() - start);
+                }
+
+                // 最低质量仍然超出限制，缩小尺寸后重试；已经是最小尺寸时失败，超出限制的数据会被平台拒绝
+                if (width <= MIN_SIZE && height <= MIN_SIZE) {
+                    throw new IOException("Thumbnail exceeds " + maxBytes + " bytes: " + width + "x" + height
+                            + ", quality " + lastQuality + ", " + buffer.size() + " bytes after " + passes + " passes");
+                }
+                width = Math.max(1, (int) (width * SHRINK_FACTOR));
+                height = Math.max(1, (int) (height * SHRINK_FACTOR));
+            }
+        } finally {
+            buffer.release();
+            best.release();
+        }
+    }
+
+    private Bitmap drawThumb(Bitmap source, int width, int height) {
+        // 原图已经是RGB_565时编码为JPEG不会再损失颜色，缩略图使用相同的格式
+        Bitmap.Config config = source.getConfig() == Bitmap.Config.RGB_565 && mFormat == Bitmap.CompressFormat.JPEG
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        Bitmap thumb = mPool != null ? mPool.getOrCreate(width, height, config)
+                : Bitmap.createBitmap(width, height, config);
+        // JPEG不支持透明，透明区域填充白色
+        thumb.eraseColor(mFormat == Bitmap.CompressFormat.JPEG ? Color.WHITE : Color.TRANSPARENT);
+
+        Canvas canvas = new Canvas(thumb);
+        canvas.drawBitmap(source, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return thumb;
+    }
+
+    private void release(Bitmap thumb) {
+        if (mPool != null) {
+            mPool.put(thumb);
+        } else {
+            thumb.recycle();
+        }
+    }
+
+    /**
+     * 缩略图编码结果
+     */
+    public static final class Result {
+        /**
+         * 编码结果的字节数
+         */
+        public final int size;
+        public final int width;
+        public final int height;
+        public final int quality;
+        public final int passes;
+        public final long encodeTimeMillis;
+
+        Result(int size, int width, int height, int quality, int passes, long encodeTimeMillis) {
+            this.size = size;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.passes = passes;
+            this.encodeTimeMillis = encodeTimeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + ", " + size + " bytes, quality " + quality
+                    + ", " + passes + " passes, " + encodeTimeMillis + "ms";
+        }
+    }
+}
@@ -4,15 +4,33 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.sun.tinker.sns.share.demo.R;
+import com.sun.tinker.sns.share.demo.utils.BitmapPool;
+import com.sun.tinker.sns.share.demo.utils.DecodeSpec;
+import com.sun.tinker.sns.share.demo.utils.ImageCache;
 import com.sun.tinker.sns.share.demo.utils.ImageUtil;
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+import com.sun.tinker.sns.share.demo.utils.RenditionProfile;
+import com.sun.tinker.sns.share.demo.utils.ThumbnailEncoder;
 
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author tinker<sunting.bcwl@gmail.com>
@@ -21,16 +39,75 @@ public abstract class BaseShareUtil {
     public static final String EXTRA_TEXT = "extra_text";
     public static final String EXTRA_IMAGE_URL = "extra_image_url";
     public static final String EXTRA_BITMAP = "extra_bitmap";
+    public static final String EXTRA_BITMAP_TOKEN = "extra_bitmap_token";
+    /**
+     * 发起跳转的时间（{@link SystemClock#elapsedRealtime()}），用于统计分享界面的启动耗时
+     */
+    public static final String EXTRA_START_TIME = "extra_start_time";
 
     private static final float BITMAP_SCALE = 2.0f / 3;
 
     protected final static String TAG = "ShareUtil";
 
+    private static final int PREPARE_POOL_SIZE = 2;
+    private static final int PREPARE_QUEUE_CAPACITY = 8;
+    private static final int PREPARE_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * 分享内容的准备工作（图片下载、解码、压缩）都放到这个有界线程池中执行，各平台共用
+     */
+    private static final ThreadPoolExecutor PREPARE_EXECUTOR;
+
+    private static volatile ShareMetrics sMetrics = new ShareStats();
+
+    static {
+        PREPARE_EXECUTOR = new ThreadPoolExecutor(PREPARE_POOL_SIZE, PREPARE_POOL_SIZE,
+                PREPARE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(PREPARE_QUEUE_CAPACITY), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "share-prepare-" + mCount.getAndIncrement());
+            }
+        });
+        PREPARE_EXECUTOR.allowCoreThreadTimeOut(true);
+
+        RenditionCache.setListener(new RenditionCache.Listener() {
+            @Override
+            public void onRenditionCreated(RenditionProfile profile, long decodeTime, ThumbnailEncoder.Result result) {
+                ShareMetrics metrics = sMetrics;
+                metrics.onImageDecoded(decodeTime);
+                metrics.onImageEncoded(profile.name, result.encodeTimeMillis, result.size);
+            }
+        });
+    }
+
     protected final Context mContext;
     protected final WeakReference<Activity> mActivity;
 
     protected Callback mCallback;
 
+    private long mMaxImageBytes;
+    private boolean mAutoFinish = true;
+
+    /**
+     * 正在进行的分享的平台和开始时间，只在主线程中访问
+     */
+    private SharePlatform mPendingPlatform;
+    private long mPendingStartTime;
+
+    /**
+     * 尚未完成的准备任务，只在主线程中访问
+     */
+    private final List<PrepareTask<?>> mPendingTasks = new ArrayList<PrepareTask<?>>();
+
     public BaseShareUtil(Activity activity) {
         mContext = activity.getApplicationContext();
         mActivity = new WeakReference<Activity>(activity);
@@ -42,6 +119,115 @@ public abstract class BaseShareUtil {
         mCallback = callback;
     }
 
+    /**
+     * 设置分享的统计，所有平台共用，默认为{@link ShareStats}
+     *
+     * @param metrics 不能为null
+     */
+    public static void setMetrics(ShareMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics must not be null.");
+        }
+        sMetrics = metrics;
+    }
+
+    public static ShareMetrics getMetrics() {
+        return sMetrics;
+    }
+
+    /**
+     * 各平台的分享方法被调用时调用此方法，开始统计分享的耗时
+     *
+     * @param platform 分享的平台
+     */
+    protected void onShareStarted(SharePlatform platform) {
+        mPendingPlatform = platform;
+        mPendingStartTime = SystemClock.elapsedRealtime();
+        sMetrics.onShareStarted(platform);
+    }
+
+    /**
+     * 登记即将发送到平台的请求，平台返回结果时根据transaction找到发起请求时的平台、开始时间和回调
+     *
+     * @param type 请求类型，只用于方便查看日志
+     * @return 唯一的transaction
+     */
+    protected String beginTransaction(String type) {
+        SharePlatform platform = mPendingPlatform;
+        long startTime = platform != null ? mPendingStartTime : SystemClock.elapsedRealtime();
+        mPendingPlatform = null;
+        return ShareTransactions.register(type, platform, startTime, mCallback);
+    }
+
+    /**
+     * 分享成功，统计后回调{@link Callback#onSuccess()}
+     */
+    protected void notifySuccess() {
+        notifySuccess(null);
+    }
+
+    /**
+     * 分享成功，统计后回调发起请求时的{@link Callback#onSuccess()}
+     *
+     * @param transaction 平台返回的transaction，没有时为null
+     */
+    protected void notifySuccess(String transaction) {
+        ShareTransactions.Request request = takeRequest(transaction);
+        if (request.platform != null) {
+            sMetrics.onShareSucceeded(request.platform, SystemClock.elapsedRealtime() - request.startTime);
+        }
+        request.callback.onSuccess();
+    }
+
+    /**
+     * 用户取消分享，统计后回调{@link Callback#onCancel()}
+     */
+    protected void notifyCancel() {
+        notifyCancel(null);
+    }
+
+    protected void notifyCancel(String transaction) {
+        ShareTransactions.Request request = takeRequest(transaction);
+        if (request.platform != null) {
+            sMetrics.onShareCancelled(request.platform, SystemClock.elapsedRealtime() - request.startTime);
+        }
+        request.callback.onCancel();
+    }
+
+    /**
+     * 分享失败，统计后回调{@link Callback#onError(String)}
+     */
+    protected void notifyError(String errorMsg) {
+        notifyError(null, errorMsg);
+    }
+
+    protected void notifyError(String transaction, String errorMsg) {
+        ShareTransactions.Request request = takeRequest(transaction);
+        if (request.platform != null) {
+            sMetrics.onShareFailed(request.platform, SystemClock.elapsedRealtime() - request.startTime, errorMsg);
+        }
+        request.callback.onError(errorMsg);
+    }
+
+    /**
+     * 平台返回了不需要回调的结果，移除对应的请求
+     */
+    protected void endTransaction(String transaction) {
+        ShareTransactions.take(transaction);
+    }
+
+    /**
+     * 找到结果对应的请求；没有transaction（QQ、准备失败）或者已过期时使用当前正在进行的分享
+     */
+    private ShareTransactions.Request takeRequest(String transaction) {
+        ShareTransactions.Request request = ShareTransactions.take(transaction);
+        if (request == null) {
+            request = new ShareTransactions.Request(mPendingPlatform, mPendingStartTime, mCallback);
+            mPendingPlatform = null;
+        }
+        return request;
+    }
+
     /**
      * 判断是本地文件路径还是网络url，目前暂认为网络url只包含http和https协议开头的
      *
@@ -72,25 +258,162 @@ public abstract class BaseShareUtil {
         return (int) (mContext.getResources().getDisplayMetrics().heightPixels * BITMAP_SCALE);
     }
 
-    protected Bitmap decodeFile(String pictureUrl) {
-        int reqWidth = getRecommendedImageWidth();
-        int reqHeight = getRecommendedImageHeight();
-        return ImageUtil.decodeSampledBitmapFromFile(pictureUrl, reqWidth, reqHeight);
+    /**
+     * 设置分享图片解码后占用内存的上限
+     *
+     * @param maxBytes 字节数，小于等于0表示不限制
+     */
+    public void setMaxImageBytes(long maxBytes) {
+        mMaxImageBytes = maxBytes;
+    }
+
+    /**
+     * 分享图片的解码参数：解码结果刚好不超过建议尺寸，同时不超过内存上限，并复用{@link BitmapPool}中的图片
+     *
+     * @return
+     */
+    protected DecodeSpec getDecodeSpec() {
+        return new DecodeSpec(getRecommendedImageWidth(), getRecommendedImageHeight())
+                .setSampleMode(DecodeSpec.SampleMode.EXACT)
+                .setMaxBytes(mMaxImageBytes)
+                .setTileBytes(DecodeSpec.DEFAULT_TILE_BYTES)
+                .setBitmapPool(BitmapPool.getInstance());
     }
 
-    protected Bitmap decodeStream(InputStream stream) {
-        int reqWidth = getRecommendedImageWidth();
-        int reqHeight = getRecommendedImageHeight();
-        return ImageUtil.decodeSampledBitmapFromStream(stream, reqWidth, reqHeight);
+    /**
+     * 分享完成后将解码得到的图片归还复用池，调用后不能再使用该图片
+     *
+     * @param bitmap
+     */
+    protected void releaseBitmap(Bitmap bitmap) {
+        BitmapPool.getInstance().put(bitmap);
+    }
+
+    /**
+     * 获取用于生成派生图片的原图，网络图片先下载到磁盘缓存，需要在后台线程中调用
+     *
+     * @param imageUrl 图片的本地路径或网络地址
+     * @return 原图
+     * @throws IOException 下载失败或者本地图片不存在
+     */
+    protected RenditionCache.Source getImageSource(String imageUrl) throws IOException {
+        File file = isUrlFromNetwork(imageUrl) ? ImageCache.getInstance(mContext).getFile(imageUrl)
+                : new File(imageUrl);
+        if (!file.isFile()) {
+            throw new IOException("Image not found: " + imageUrl);
+        }
+        return RenditionCache.Source.fromFile(file);
+    }
+
+    /**
+     * 按规格获取派生图片的内容，同一原图按同一规格只生成一次，需要在后台线程中调用
+     */
+    protected byte[] getRendition(RenditionCache.Source source, RenditionProfile profile) throws IOException {
+        return RenditionCache.getInstance(mContext).getBytes(source, profile);
+    }
+
+    /**
+     * 获取可以直接交给其他应用读取的图片文件，需要在后台线程中调用
+     * <p>
+     * 原图文件已经满足规格并且不在应用的私有目录中时直接使用原文件，不复制内容；否则使用派生图片文件
+     * </p>
+     */
+    protected File getShareableFile(RenditionCache.Source source, RenditionProfile profile) throws IOException {
+        RenditionCache cache = RenditionCache.getInstance(mContext);
+        File sourceFile = cache.findSatisfyingSource(source, profile);
+        if (sourceFile != null && !isPrivateFile(sourceFile)) {
+            return sourceFile;
+        }
+        return cache.getFile(source, profile);
+    }
+
+    /**
+     * 文件是否在应用的私有目录中，私有目录中的文件其他应用无法读取
+     */
+    protected boolean isPrivateFile(File file) {
+        try {
+            String dataDir = mContext.getFilesDir().getParentFile().getCanonicalPath();
+            return file.getCanonicalPath().startsWith(dataDir + File.separator);
+        } catch (IOException e) {
+            // 无法确定时按私有处理，回退到传递内容
+            return true;
+        }
     }
 
     protected Bitmap decodeResource(int imageRes) {
-        int reqWidth = getRecommendedImageWidth();
-        int reqHeight = getRecommendedImageHeight();
-        return ImageUtil.decodeSampledBitmapFromResource(mContext.getResources(), imageRes, reqWidth, reqHeight);
+        long start = SystemClock.elapsedRealtime();
+        Bitmap bitmap = ImageUtil.decodeSampledBitmapFromResource(mContext.getResources(), imageRes,
+                getDecodeSpec());
+        sMetrics.onImageDecoded(SystemClock.elapsedRealtime() - start);
+        return bitmap;
     }
 
+    /**
+     * 在后台线程中执行分享内容的准备工作，结果在主线程中回调
+     *
+     * @param task 准备任务
+     * @return 任务是否已经开始，等待的任务过多时返回false并通过{@link #notifyError(String)}回调
+     */
+    protected boolean startPrepare(PrepareTask<?> task) {
+        try {
+            task.executeOnExecutor(PREPARE_EXECUTOR);
+            mPendingTasks.add(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Too many pending share tasks.", e);
+            notifyError("Too many pending share tasks.");
+            return false;
+        }
+    }
+
+    /**
+     * 取消所有尚未完成的准备任务
+     * <p>
+     * 需要在分享的Activity的onDestroy方法中调用此方法
+     * </p>
+     */
+    public void onDestroy() {
+        for (PrepareTask<?> task : mPendingTasks) {
+            task.cancel(true);
+        }
+        mPendingTasks.clear();
+    }
+
+    /**
+     * 设置分享结束后是否自动关闭分享的Activity，批量分享时由{@link ShareBatch}在全部完成后关闭
+     *
+     * @param autoFinish 默认为true
+     */
+    public void setAutoFinish(boolean autoFinish) {
+        mAutoFinish = autoFinish;
+    }
+
+    /**
+     * 构建批量分享时发送到target的消息，在后台线程中调用
+     * <p>
+     * 可以通过{@link SharePreparation#getArtifact(Class)}复用同一批次中其他平台已经产生的中间结果
+     * </p>
+     *
+     * @param target      分享的平台
+     * @param preparation 批量分享的内容
+     * @return 传给{@link #sendBatchMessage(SharePlatform, Object)}的消息
+     * @throws Exception 构建失败时只影响当前平台
+     */
+    protected abstract Object buildBatchMessage(SharePlatform target, SharePreparation preparation)
+            throws Exception;
+
+    /**
+     * 在主线程中发送批量分享的消息
+     *
+     * @return 平台是否会通过{@link Callback}回调分享结果
+     */
+    protected abstract boolean sendBatchMessage(SharePlatform target, Object message);
+
     protected void finish() {
+        if (!mAutoFinish) {
+            return;
+        }
+
         Activity activity = mActivity.get();
         if (activity != null) {
             activity.finish();
@@ -109,13 +432,20 @@ public abstract class BaseShareUtil {
             return;
         }
 
+        long startTime = SystemClock.elapsedRealtime();
+        PlatformClients.getInstance(context).prewarm();
         Intent intent = new Intent(context, WXEntryActivity.class);
+        intent.putExtra(EXTRA_START_TIME, startTime);
         intent.putExtra(EXTRA_IMAGE_URL, imageUrl);
         context.startActivity(intent);
     }
 
     /**
      * 跳转到分享界面
+     * <p>
+     * 图片不经过Intent序列化，只传递{@link SharePayloadRegistry}中的token，分享界面直接使用同一个图片对象。
+     * 分享过程中不会修改或回收这张图片，调用者在分享界面关闭之前也不能回收它
+     * </p>
      *
      * @param context
      * @param bitmap  分享的图片
@@ -126,11 +456,61 @@ public abstract class BaseShareUtil {
             return;
         }
 
+        long startTime = SystemClock.elapsedRealtime();
+        PlatformClients.getInstance(context).prewarm();
         Intent intent = new Intent(context, WXEntryActivity.class);
-        intent.putExtra(EXTRA_BITMAP, bitmap);
+        intent.putExtra(EXTRA_START_TIME, startTime);
+        intent.putExtra(EXTRA_BITMAP_TOKEN, SharePayloadRegistry.register(bitmap));
         context.startActivity(intent);
     }
 
+    /**
+     * 分享内容的准备任务
+     * <p>
+     * {@link #prepare()}在后台线程中执行，{@link #onPrepared(Object)}在主线程中执行；
+     * 若准备过程中抛出异常则通过{@link #notifyError(String)}回调，若分享的Activity已经销毁则不再回调
+     * </p>
+     *
+     * @param <T> 准备结果
+     */
+    protected abstract class PrepareTask<T> extends AsyncTask<Void, Void, T> {
+        private Exception mError;
+
+        protected abstract T prepare() throws Exception;
+
+        protected abstract void onPrepared(T result);
+
+        @Override
+        protected final T doInBackground(Void... params) {
+            try {
+                return prepare();
+            } catch (Exception e) {
+                mError = e;
+                return null;
+            }
+        }
+
+        @Override
+        protected final void onPostExecute(T result) {
+            mPendingTasks.remove(this);
+            if (mActivity.get() == null) {
+                return;
+            }
+
+            if (mError != null) {
+                Log.w(TAG, "Failed to prepare share content.", mError);
+                notifyError(mError.getMessage());
+            } else {
+                onPrepared(result);
+            }
+        }
+
+        @Override
+        protected final void onCancelled(T result) {
+            mPendingTasks.remove(this);
+        }
+    }
+
     public class SimpleCallbackAdapter implements Callback {
 
         @Override
@@ -0,0 +1,212 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.sina.weibo.sdk.api.share.IWeiboShareAPI;
+import com.sina.weibo.sdk.api.share.WeiboShareSDK;
+import com.tencent.mm.sdk.openapi.IWXAPI;
+import com.tencent.mm.sdk.openapi.WXAPIFactory;
+import com.tencent.tauth.Tencent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 应用级别共享的各平台SDK客户端
+ * <p>
+ * 各SDK客户端的创建和注册只进行一次，可以通过{@link #prewarm()}提前在后台线程中完成。
+ * 主线程中需要客户端时必须使用带{@link Callback}的方法，初始化完成后再在主线程中回调；
+ * 同步获取只能在后台线程中调用，若还未开始则在当前线程中初始化
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class PlatformClients {
+    private static PlatformClients sInstance;
+
+    private final Context mContext;
+    private final AtomicBoolean mPrewarmStarted = new AtomicBoolean();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ClientTask<Tencent> mTencent = new ClientTask<Tencent>(new Callable<Tencent>() {
+        @Override
+        public Tencent call() {
+            return Tencent.createInstance(TencentShareUtil.APP_ID, mContext);
+        }
+    });
+
+    private final ClientTask<IWeiboShareAPI> mWeibo = new ClientTask<IWeiboShareAPI>(new Callable<IWeiboShareAPI>() {
+        @Override
+        public IWeiboShareAPI call() {
+            IWeiboShareAPI api = WeiboShareSDK.createWeiboAPI(mContext, WeiboShareUtil.APP_KEY);
+            api.registerApp();
+            return api;
+        }
+    });
+
+    private final ClientTask<IWXAPI> mWechat = new ClientTask<IWXAPI>(new Callable<IWXAPI>() {
+        @Override
+        public IWXAPI call() {
+            IWXAPI api = WXAPIFactory.createWXAPI(mContext, WechatShareUtil.APP_ID, false);
+            api.registerApp(WechatShareUtil.APP_ID);
+            return api;
+        }
+    });
+
+    /**
+     * SDK客户端初始化完成的回调，在主线程中调用
+     */
+    public interface Callback<T> {
+        void onClientReady(T client);
+    }
+
+    private PlatformClients(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public static synchronized PlatformClients getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PlatformClients(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 在后台线程中初始化所有SDK客户端，重复调用无效
+     */
+    public void prewarm() {
+        if (!mPrewarmStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                mWechat.run();
+                mWeibo.run();
+                mTencent.run();
+                // 顺便读取微博Token，分享时直接使用内存中的缓存
+                WeiboTokenStore.getInstance(mContext).getToken();
+            }
+        }, "share-sdk-init").start();
+    }
+
+    /**
+     * 同步获取QQ客户端，不能在主线程中调用
+     */
+    public Tencent getTencent() {
+        return get(mTencent);
+    }
+
+    /**
+     * 同步获取微博客户端，不能在主线程中调用
+     */
+    public IWeiboShareAPI getWeiboApi() {
+        return get(mWeibo);
+    }
+
+    /**
+     * 同步获取微信客户端，不能在主线程中调用
+     */
+    public IWXAPI getWechatApi() {
+        return get(mWechat);
+    }
+
+    /**
+     * QQ客户端初始化完成后在主线程中回调，已经完成时在主线程中直接回调
+     */
+    public void getTencent(Callback<Tencent> callback) {
+        whenReady(mTencent, callback);
+    }
+
+    /**
+     * 微博客户端初始化完成后在主线程中回调，已经完成时在主线程中直接回调
+     */
+    public void getWeiboApi(Callback<IWeiboShareAPI> callback) {
+        whenReady(mWeibo, callback);
+    }
+
+    /**
+     * 微信客户端初始化完成后在主线程中回调，已经完成时在主线程中直接回调
+     */
+    public void getWechatApi(Callback<IWXAPI> callback) {
+        whenReady(mWechat, callback);
+    }
+
+    private <T> T get(ClientTask<T> task) {
+        if (!task.isDone()) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                // 主线程中既不能执行SDK的初始化，也不能等待后台线程完成
+                throw new IllegalStateException("Sdk client is not ready, use the callback on the main thread.");
+            }
+            // 还未开始时在当前线程中初始化，已经开始时等待其完成
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while initializing sdk client.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to initialize sdk client.", e.getCause());
+        }
+    }
+
+    private <T> void whenReady(final ClientTask<T> task, final Callback<T> callback) {
+        Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                callback.onClientReady(get(task));
+            }
+        };
+        if (task.addCallback(deliver)) {
+            prewarm();
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
+            deliver.run();
+        } else {
+            mMainHandler.post(deliver);
+        }
+    }
+
+    /**
+     * 初始化完成后把等待中的回调转到主线程执行
+     */
+    private final class ClientTask<T> extends FutureTask<T> {
+        private List<Runnable> mCallbacks = new ArrayList<Runnable>();
+
+        ClientTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        /**
+         * @return 初始化还未完成，回调会在完成后执行时返回true；已经完成时返回false，由调用者执行
+         */
+        synchronized boolean addCallback(Runnable callback) {
+            if (mCallbacks == null) {
+                return false;
+            }
+            mCallbacks.add(callback);
+            return true;
+        }
+
+        @Override
+        protected void done() {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = mCallbacks;
+                mCallbacks = null;
+            }
+            for (Runnable callback : callbacks) {
+                mMainHandler.post(callback);
+            }
+        }
+    }
+}
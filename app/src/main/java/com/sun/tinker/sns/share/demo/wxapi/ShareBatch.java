@@ -0,0 +1,364 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.graphics.Bitmap;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量分享：同一份内容分享到多个平台
+ * <p>
+ * 原图只获取一次，各平台的消息（包括缩略图、临时文件等中间结果）在同一个后台任务中构建，
+ * 之后在主线程中按{@link SharePlatform}的顺序依次发送，收到上一个平台的结果后再发送下一个。
+ * 发送过程中不会关闭分享的Activity，全部完成后再关闭
+ * </p>
+ * <p>
+ * {@link #prepare}和{@link #dispatch}可以分开调用，先在后台准备好内容，用户选择平台后直接发送
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class ShareBatch {
+    private static final String TAG = "ShareBatch";
+
+    /**
+     * 单个平台的分享结果
+     */
+    public enum Result {
+        SUCCESS,
+        CANCEL,
+        ERROR,
+        /**
+         * 已发送，但平台不会回调分享结果
+         */
+        SENT
+    }
+
+    public interface Listener {
+        /**
+         * 单个平台分享结束
+         *
+         * @param errorMsg 只有结果为{@link Result#ERROR}时不为null
+         */
+        void onTargetFinished(SharePlatform target, Result result, String errorMsg);
+
+        /**
+         * 所有平台分享结束，之后会关闭分享的Activity
+         */
+        void onBatchFinished(Map<SharePlatform, Result> results);
+    }
+
+    private final Map<SharePlatform, BaseShareUtil> mUtils =
+            new EnumMap<SharePlatform, BaseShareUtil>(SharePlatform.class);
+    private final BaseShareUtil mOwner;
+
+    private BaseShareUtil.PrepareTask<SharePreparation> mPrepareTask;
+    private SharePreparation mPreparation;
+    private List<SharePlatform> mPreparedTargets = Collections.emptyList();
+
+    private Collection<SharePlatform> mPendingTargets;
+    private Listener mListener;
+    private final LinkedList<SharePlatform> mQueue = new LinkedList<SharePlatform>();
+    private final Map<SharePlatform, Result> mResults = new EnumMap<SharePlatform, Result>(SharePlatform.class);
+    private final Map<BaseShareUtil, BaseShareUtil.Callback> mSavedCallbacks =
+            new HashMap<BaseShareUtil, BaseShareUtil.Callback>();
+    private SharePlatform mCurrent;
+
+    /**
+     * 不支持的平台传入null
+     */
+    public ShareBatch(WechatShareUtil wechat, WeiboShareUtil weibo, TencentShareUtil tencent) {
+        putUtil(SharePlatform.WECHAT_FRIENDS, wechat);
+        putUtil(SharePlatform.WECHAT_TIMELINE, wechat);
+        putUtil(SharePlatform.WEIBO, weibo);
+        putUtil(SharePlatform.QQ, tencent);
+        if (mUtils.isEmpty()) {
+            throw new IllegalArgumentException("At least one share util is required.");
+        }
+        mOwner = mUtils.values().iterator().next();
+    }
+
+    private void putUtil(SharePlatform target, BaseShareUtil util) {
+        if (util != null) {
+            mUtils.put(target, util);
+        }
+    }
+
+    /**
+     * 分享内容到多个平台，相当于{@link #prepare(String, String, Collection)}后立即{@link #dispatch}
+     */
+    public void share(String text, String imageUrl, Collection<SharePlatform> targets, Listener listener) {
+        prepare(text, imageUrl, targets);
+        dispatch(targets, listener);
+    }
+
+    public void share(String text, Bitmap bitmap, Collection<SharePlatform> targets, Listener listener) {
+        prepare(text, bitmap, targets);
+        dispatch(targets, listener);
+    }
+
+    /**
+     * 在后台准备分享到各平台的内容
+     *
+     * @param text     文字内容
+     * @param imageUrl 图片的本地路径或网络地址
+     * @param targets  需要准备的平台
+     */
+    public void prepare(String text, final String imageUrl, Collection<SharePlatform> targets) {
+        startPrepare(text, targets, new ImageSource() {
+            @Override
+            public RenditionCache.Source load() throws IOException {
+                return TextUtils.isEmpty(imageUrl) ? null : mOwner.getImageSource(imageUrl);
+            }
+        });
+    }
+
+    /**
+     * 在后台准备分享到各平台的内容，不会回收传入的图片
+     */
+    public void prepare(String text, final Bitmap bitmap, Collection<SharePlatform> targets) {
+        startPrepare(text, targets, new ImageSource() {
+            @Override
+            public RenditionCache.Source load() {
+                return bitmap != null ? RenditionCache.Source.fromBitmap(bitmap) : null;
+            }
+        });
+    }
+
+    public boolean isPrepared() {
+        return mPreparation != null;
+    }
+
+    /**
+     * 是否可以发送到target：正在为它准备，或者已经准备成功
+     * <p>
+     * 准备失败时返回false，调用方可以改为直接分享，由各平台自己提示错误
+     * </p>
+     */
+    public boolean canDispatch(SharePlatform target) {
+        if (mPrepareTask != null) {
+            return mPreparedTargets.contains(target);
+        }
+        return mPreparation != null && mPreparation.getMessage(target) != null;
+    }
+
+    /**
+     * 依次发送到各平台，内容还未准备好时在准备完成后发送
+     *
+     * @param targets  分享的平台，必须已经通过prepare准备过
+     * @param listener 分享结果，可以为null
+     */
+    public void dispatch(Collection<SharePlatform> targets, Listener listener) {
+        if (mCurrent != null || mPendingTargets != null) {
+            throw new IllegalStateException("Batch is already dispatching.");
+        }
+        if (mPreparation == null && mPrepareTask == null) {
+            throw new IllegalStateException("Call prepare before dispatch.");
+        }
+
+        mPendingTargets = targets;
+        mListener = listener;
+        if (mPreparation != null) {
+            startDispatch();
+        }
+    }
+
+    /**
+     * 取消准备和尚未发送的平台
+     * <p>
+     * 需要在分享的Activity的onDestroy方法中调用此方法
+     * </p>
+     */
+    public void cancel() {
+        if (mPrepareTask != null) {
+            mPrepareTask.cancel(true);
+            mPrepareTask = null;
+        }
+        mPendingTargets = null;
+        mQueue.clear();
+        if (mCurrent != null) {
+            mCurrent = null;
+            restoreUtils();
+        }
+    }
+
+    private void startPrepare(final String text, Collection<SharePlatform> targets, final ImageSource source) {
+        cancel();
+        mPreparation = null;
+
+        final List<SharePlatform> sortedTargets = sort(targets);
+        mPreparedTargets = sortedTargets;
+        mPrepareTask = mOwner.new PrepareTask<SharePreparation>() {
+            @Override
+            protected SharePreparation prepare() {
+                return buildPreparation(text, sortedTargets, source);
+            }
+
+            @Override
+            protected void onPrepared(SharePreparation preparation) {
+                mPrepareTask = null;
+                mPreparation = preparation;
+                if (mPendingTargets != null) {
+                    startDispatch();
+                }
+            }
+        };
+        if (!mOwner.startPrepare(mPrepareTask)) {
+            mPrepareTask = null;
+            mPreparation = new SharePreparation(text);
+            for (SharePlatform target : sortedTargets) {
+                mPreparation.putError(target, "Too many pending share tasks.");
+            }
+        }
+    }
+
+    /**
+     * 在后台线程中获取图片并构建各平台的消息，单个平台失败不影响其他平台
+     */
+    private SharePreparation buildPreparation(String text, List<SharePlatform> targets, ImageSource imageSource) {
+        SharePreparation preparation = new SharePreparation(text);
+        RenditionCache.Source source;
+        try {
+            source = imageSource.load();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to load share image.", e);
+            for (SharePlatform target : targets) {
+                preparation.putError(target, e.getMessage());
+            }
+            return preparation;
+        }
+
+        preparation.setSource(source);
+        try {
+            for (SharePlatform target : targets) {
+                BaseShareUtil util = mUtils.get(target);
+                if (util == null) {
+                    preparation.putError(target, "Unsupported platform: " + target);
+                    continue;
+                }
+                try {
+                    preparation.putMessage(target, util.buildBatchMessage(target, preparation));
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to prepare share to " + target, e);
+                    preparation.putError(target, e.getMessage());
+                }
+            }
+        } finally {
+            // 各平台的消息都已经完成压缩，不再需要原图
+            preparation.setSource(null);
+            if (source != null) {
+                source.release();
+            }
+        }
+        return preparation;
+    }
+
+    private void startDispatch() {
+        mQueue.clear();
+        mQueue.addAll(sort(mPendingTargets));
+        mPendingTargets = null;
+        mResults.clear();
+
+        for (BaseShareUtil util : mUtils.values()) {
+            if (!mSavedCallbacks.containsKey(util)) {
+                mSavedCallbacks.put(util, util.mCallback);
+                util.setAutoFinish(false);
+                util.setCallback(new TargetCallback());
+            }
+        }
+        next();
+    }
+
+    private void next() {
+        while (!mQueue.isEmpty()) {
+            SharePlatform target = mQueue.poll();
+            Object message = mPreparation.getMessage(target);
+            if (message == null) {
+                String error = mPreparation.getError(target);
+                onTargetFinished(target, Result.ERROR, error != null ? error : "Not prepared: " + target);
+                continue;
+            }
+
+            mCurrent = target;
+            if (mUtils.get(target).sendBatchMessage(target, message)) {
+                // 等待平台回调结果后再发送下一个
+                return;
+            }
+            onTargetFinished(target, Result.SENT, null);
+        }
+
+        mCurrent = null;
+        restoreUtils();
+        if (mListener != null) {
+            mListener.onBatchFinished(Collections.unmodifiableMap(new EnumMap<SharePlatform, Result>(mResults)));
+        }
+        mOwner.finish();
+    }
+
+    private void onTargetFinished(SharePlatform target, Result result, String errorMsg) {
+        mResults.put(target, result);
+        if (mListener != null) {
+            mListener.onTargetFinished(target, result, errorMsg);
+        }
+    }
+
+    private void restoreUtils() {
+        for (Map.Entry<BaseShareUtil, BaseShareUtil.Callback> entry : mSavedCallbacks.entrySet()) {
+            entry.getKey().setCallback(entry.getValue());
+            entry.getKey().setAutoFinish(true);
+        }
+        mSavedCallbacks.clear();
+    }
+
+    private static List<SharePlatform> sort(Collection<SharePlatform> targets) {
+        // EnumSet按声明顺序排列并去重
+        return new ArrayList<SharePlatform>(targets.isEmpty() ? EnumSet.noneOf(SharePlatform.class)
+                : EnumSet.copyOf(targets));
+    }
+
+    /**
+     * 把各平台的回调转换为当前平台的结果
+     */
+    private class TargetCallback implements BaseShareUtil.Callback {
+        @Override
+        public void onError(String errorMsg) {
+            onResult(Result.ERROR, errorMsg);
+        }
+
+        @Override
+        public void onSuccess() {
+            onResult(Result.SUCCESS, null);
+        }
+
+        @Override
+        public void onCancel() {
+            onResult(Result.CANCEL, null);
+        }
+
+        private void onResult(Result result, String errorMsg) {
+            if (mCurrent == null) {
+                return;
+            }
+            SharePlatform target = mCurrent;
+            mCurrent = null;
+            onTargetFinished(target, result, errorMsg);
+            next();
+        }
+    }
+
+    private interface ImageSource {
+        RenditionCache.Source load() throws IOException;
+    }
+}
@@ -0,0 +1,42 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+/**
+ * 分享过程的统计接口，通过{@link BaseShareUtil#setMetrics(ShareMetrics)}接入线上统计
+ * <p>
+ * 分享相关的方法在主线程中回调，图片解码和编码相关的方法在准备线程中回调；
+ * 实现需要线程安全，并且不能阻塞
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public interface ShareMetrics {
+    /**
+     * 调用了分享方法
+     */
+    void onShareStarted(SharePlatform platform);
+
+    /**
+     * @param latencyMillis 从调用分享方法到收到平台回调的耗时
+     */
+    void onShareSucceeded(SharePlatform platform, long latencyMillis);
+
+    void onShareCancelled(SharePlatform platform, long latencyMillis);
+
+    /**
+     * 分享失败，包括准备分享内容失败和平台回调的错误
+     */
+    void onShareFailed(SharePlatform platform, long latencyMillis, String errorMsg);
+
+    /**
+     * 解码了一张分享图片
+     */
+    void onImageDecoded(long durationMillis);
+
+    /**
+     * 按派生规格编码了一张分享图片
+     *
+     * @param profile 派生规格的名称
+     * @param bytes   编码结果的字节数
+     */
+    void onImageEncoded(String profile, long durationMillis, int bytes);
+}
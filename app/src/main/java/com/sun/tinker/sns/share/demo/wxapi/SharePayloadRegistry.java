@@ -0,0 +1,119 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的分享内容登记表
+ * <p>
+ * 图片等大对象不通过Intent传递（会经过Binder序列化，超过1MB时抛出TransactionTooLargeException），
+ * 而是登记在这里，Intent中只传递一个token，分享界面通过token直接取得同一个对象
+ * </p>
+ * <p>
+ * 登记的内容一直强引用，分享界面重建（例如旋转屏幕）后仍然可以通过同一个token取出，
+ * 分享界面真正结束时调用{@link #remove(String)}移除。分享界面一直没有取出的内容超过有效期后被移除
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+final class SharePayloadRegistry {
+    private static final long TTL_MILLIS = 5 * 60 * 1000;
+
+    private static final Map<String, Entry> sEntries = new ConcurrentHashMap<String, Entry>();
+    private static final AtomicLong sNextId = new AtomicLong();
+
+    private SharePayloadRegistry() {
+    }
+
+    /**
+     * 登记分享内容
+     *
+     * @param payload 分享内容
+     * @return 用于取出分享内容的token
+     */
+    static String register(Object payload) {
+        return register(payload, TTL_MILLIS);
+    }
+
+    /**
+     * 登记分享内容并指定有效期
+     *
+     * @param payload   分享内容
+     * @param ttlMillis 一直没有取出时的有效期
+     * @return 用于取出分享内容的token
+     */
+    static String register(Object payload, long ttlMillis) {
+        evictExpired();
+        String token = "payload-" + sNextId.incrementAndGet();
+        sEntries.put(token, new Entry(payload, SystemClock.elapsedRealtime() + ttlMillis));
+        return token;
+    }
+
+    /**
+     * 根据token取出分享内容
+     *
+     * @param token
+     * @param type  分享内容的类型
+     * @return 不存在、已过期或者类型不符时返回null
+     */
+    static <T> T resolve(String token, Class<T> type) {
+        evictExpired();
+        if (token == null) {
+            return null;
+        }
+
+        Entry entry = sEntries.get(token);
+        if (entry == null) {
+            return null;
+        }
+
+        Object payload = entry.claim();
+        return type.isInstance(payload) ? type.cast(payload) : null;
+    }
+
+    /**
+     * 移除分享内容，需要在分享界面结束（onDestroy并且isFinishing）时调用
+     */
+    static void remove(String token) {
+        if (token != null) {
+            sEntries.remove(token);
+        }
+    }
+
+    private static void evictExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Object mPayload;
+        private final long mExpiresAt;
+        private volatile boolean mClaimed;
+
+        Entry(Object payload, long expiresAt) {
+            mPayload = payload;
+            mExpiresAt = expiresAt;
+        }
+
+        /**
+         * 取出内容，之后不再过期，直到分享界面移除
+         */
+        Object claim() {
+            mClaimed = true;
+            return mPayload;
+        }
+
+        boolean isExpired(long now) {
+            return !mClaimed && mExpiresAt <= now;
+        }
+    }
+}
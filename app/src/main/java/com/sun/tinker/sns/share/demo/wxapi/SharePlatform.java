@@ -0,0 +1,16 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+/**
+ * 分享的目标平台
+ * <p>
+ * 批量分享时按声明顺序依次发送；QQ不会回调分享结果，所以放在最后
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public enum SharePlatform {
+    WECHAT_FRIENDS,
+    WECHAT_TIMELINE,
+    WEIBO,
+    QQ
+}
@@ -0,0 +1,74 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 批量分享中各平台共用的中间结果
+ * <p>
+ * 原图只获取一次，各平台按自己的规格从{@link RenditionCache}中取得派生图片，
+ * 构建消息时产生的其他中间结果以类型为key保存在这里，
+ * 同一批次的其他目标可以直接复用。只在准备线程中修改，准备完成后在主线程中读取
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class SharePreparation {
+    private final String mText;
+    private RenditionCache.Source mSource;
+
+    private final Map<Class<?>, Object> mArtifacts = new HashMap<Class<?>, Object>();
+    private final Map<SharePlatform, Object> mMessages = new EnumMap<SharePlatform, Object>(SharePlatform.class);
+    private final Map<SharePlatform, String> mErrors = new EnumMap<SharePlatform, String>(SharePlatform.class);
+
+    SharePreparation(String text) {
+        mText = text;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * 分享图片的原图，只在构建消息时可以使用
+     *
+     * @return 没有图片时返回null
+     */
+    public RenditionCache.Source getSource() {
+        return mSource;
+    }
+
+    void setSource(RenditionCache.Source source) {
+        mSource = source;
+    }
+
+    public <T> T getArtifact(Class<T> type) {
+        return type.cast(mArtifacts.get(type));
+    }
+
+    public <T> void putArtifact(Class<T> type, T artifact) {
+        mArtifacts.put(type, artifact);
+    }
+
+    void putMessage(SharePlatform target, Object message) {
+        mMessages.put(target, message);
+    }
+
+    /**
+     * @return 没有准备或者准备失败时返回null
+     */
+    Object getMessage(SharePlatform target) {
+        return mMessages.get(target);
+    }
+
+    void putError(SharePlatform target, String errorMsg) {
+        mErrors.put(target, errorMsg);
+    }
+
+    String getError(SharePlatform target) {
+        return mErrors.get(target);
+    }
+}
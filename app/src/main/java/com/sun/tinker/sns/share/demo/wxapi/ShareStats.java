@@ -0,0 +1,194 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 默认的分享统计，只保存在内存中
+ * <p>
+ * 计数和耗时分布都使用原子数组，记录时不加锁，不会阻塞主线程；
+ * 耗时按固定的区间统计，百分位数取所在区间的上界
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class ShareStats implements ShareMetrics {
+
+    public enum Counter {
+        ATTEMPT,
+        SUCCESS,
+        CANCEL,
+        ERROR
+    }
+
+    private static final int PLATFORM_COUNT = SharePlatform.values().length;
+    private static final int COUNTER_COUNT = Counter.values().length;
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(PLATFORM_COUNT * COUNTER_COUNT);
+    private final Histogram[] mLatencies = new Histogram[PLATFORM_COUNT];
+    private final Histogram mDecodeTimes = new Histogram();
+    private final Histogram mEncodeTimes = new Histogram();
+    private final AtomicLong mEncodedBytes = new AtomicLong();
+
+    public ShareStats() {
+        for (int i = 0; i < PLATFORM_COUNT; i++) {
+            mLatencies[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void onShareStarted(SharePlatform platform) {
+        increment(platform, Counter.ATTEMPT);
+    }
+
+    @Override
+    public void onShareSucceeded(SharePlatform platform, long latencyMillis) {
+        increment(platform, Counter.SUCCESS);
+        mLatencies[platform.ordinal()].record(latencyMillis);
+    }
+
+    @Override
+    public void onShareCancelled(SharePlatform platform, long latencyMillis) {
+        increment(platform, Counter.CANCEL);
+        mLatencies[platform.ordinal()].record(latencyMillis);
+    }
+
+    @Override
+    public void onShareFailed(SharePlatform platform, long latencyMillis, String errorMsg) {
+        increment(platform, Counter.ERROR);
+        mLatencies[platform.ordinal()].record(latencyMillis);
+    }
+
+    @Override
+    public void onImageDecoded(long durationMillis) {
+        mDecodeTimes.record(durationMillis);
+    }
+
+    @Override
+    public void onImageEncoded(String profile, long durationMillis, int bytes) {
+        mEncodeTimes.record(durationMillis);
+        mEncodedBytes.addAndGet(bytes);
+    }
+
+    private void increment(SharePlatform platform, Counter counter) {
+        mCounters.incrementAndGet(platform.ordinal() * COUNTER_COUNT + counter.ordinal());
+    }
+
+    public long getCount(SharePlatform platform, Counter counter) {
+        return mCounters.get(platform.ordinal() * COUNTER_COUNT + counter.ordinal());
+    }
+
+    /**
+     * 从调用分享方法到收到平台回调的耗时分布
+     */
+    public Histogram getLatency(SharePlatform platform) {
+        return mLatencies[platform.ordinal()];
+    }
+
+    public Histogram getDecodeTimes() {
+        return mDecodeTimes;
+    }
+
+    public Histogram getEncodeTimes() {
+        return mEncodeTimes;
+    }
+
+    public long getEncodedBytes() {
+        return mEncodedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (SharePlatform platform : SharePlatform.values()) {
+            sb.append(platform).append(": ");
+            for (Counter counter : Counter.values()) {
+                sb.append(counter.name().toLowerCase()).append(' ').append(getCount(platform, counter)).append(", ");
+            }
+            sb.append("latency ").append(getLatency(platform)).append('\n');
+        }
+        sb.append("decode ").append(mDecodeTimes).append('\n');
+        sb.append("encode ").append(mEncodeTimes).append(", ").append(mEncodedBytes.get()).append(" bytes");
+        return sb.toString();
+    }
+
+    /**
+     * 耗时分布，按固定的区间计数
+     */
+    public static final class Histogram {
+        /**
+         * 各区间的上界（毫秒），超出最后一个上界的计入额外的区间
+         */
+        private static final long[] BOUNDS_MILLIS = {16, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long millis) {
+            millis = Math.max(0, millis);
+            mBuckets.incrementAndGet(bucketOf(millis));
+            mCount.incrementAndGet();
+            mSum.addAndGet(millis);
+            long max;
+            do {
+                max = mMax.get();
+            } while (millis > max && !mMax.compareAndSet(max, millis));
+        }
+
+        private static int bucketOf(long millis) {
+            for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+                if (millis <= BOUNDS_MILLIS[i]) {
+                    return i;
+                }
+            }
+            return BOUNDS_MILLIS.length;
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMean() {
+            long count = mCount.get();
+            return count > 0 ? mSum.get() / count : 0;
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * @param percentile 0到100之间
+         * @return 百分位数所在区间的上界，落在最后一个区间时返回最大值；没有记录时返回0
+         */
+        public long getPercentile(float percentile) {
+            long count = 0;
+            long[] buckets = new long[mBuckets.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(BOUNDS_MILLIS[i], mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count " + getCount() + ", mean " + getMean() + "ms, p50 " + getPercentile(50) + "ms, p90 "
+                    + getPercentile(90) + "ms, max " + getMax() + "ms";
+        }
+    }
+}
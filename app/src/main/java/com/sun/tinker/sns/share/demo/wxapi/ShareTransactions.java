@@ -0,0 +1,98 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内正在进行的分享请求表
+ * <p>
+ * 发送到微信、微博的每个请求使用唯一的transaction，平台返回结果时带回同一个transaction，
+ * 据此找到发起请求的平台、开始时间和当时的回调。分享界面在等待结果期间被重建时结果仍然能够对应上
+ * </p>
+ * <p>
+ * transaction由进程启动时间和递增序号组成，同一毫秒内的多次分享以及进程重启前后的请求都不会重复；
+ * 超过有效期仍未返回结果的请求会被移除
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+final class ShareTransactions {
+    private static final String TAG = "ShareTransactions";
+
+    /**
+     * 用户可能在平台中停留较长时间才返回
+     */
+    static final long TTL_MILLIS = 30 * 60 * 1000;
+
+    private static final String PROCESS_ID = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    private static final Map<String, Request> sRequests = new ConcurrentHashMap<String, Request>();
+    private static final AtomicLong sNextId = new AtomicLong();
+
+    private ShareTransactions() {
+    }
+
+    /**
+     * 生成唯一的transaction
+     *
+     * @param type 请求类型，只用于方便查看日志，可以为null
+     */
+    static String newTransaction(String type) {
+        String id = PROCESS_ID + "-" + sNextId.incrementAndGet();
+        return type == null ? id : type + "-" + id;
+    }
+
+    /**
+     * 登记一个已经发出的请求
+     *
+     * @param platform  分享的平台，未知时为null
+     * @param startTime 开始分享的时间（{@link SystemClock#elapsedRealtime()}）
+     * @param callback  收到结果时回调
+     * @return 请求的transaction
+     */
+    static String register(String type, SharePlatform platform, long startTime, BaseShareUtil.Callback callback) {
+        evictExpired();
+        String transaction = newTransaction(type);
+        sRequests.put(transaction, new Request(platform, startTime, callback));
+        return transaction;
+    }
+
+    /**
+     * 取出平台结果对应的请求，每个请求只能取出一次
+     *
+     * @return 不存在或者已过期时返回null
+     */
+    static Request take(String transaction) {
+        evictExpired();
+        return transaction != null ? sRequests.remove(transaction) : null;
+    }
+
+    static void evictExpired() {
+        long deadline = SystemClock.elapsedRealtime() - TTL_MILLIS;
+        Iterator<Map.Entry<String, Request>> iterator = sRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Request> entry = iterator.next();
+            if (entry.getValue().startTime <= deadline) {
+                Log.d(TAG, "No response for " + entry.getKey() + " on " + entry.getValue().platform);
+                iterator.remove();
+            }
+        }
+    }
+
+    static final class Request {
+        final SharePlatform platform;
+        final long startTime;
+        final BaseShareUtil.Callback callback;
+
+        Request(SharePlatform platform, long startTime, BaseShareUtil.Callback callback) {
+            this.platform = platform;
+            this.startTime = startTime;
+            this.callback = callback;
+        }
+    }
+}
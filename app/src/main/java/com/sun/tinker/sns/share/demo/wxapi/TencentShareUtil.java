@@ -1,15 +1,19 @@
 package com.sun.tinker.sns.share.demo.wxapi;
 
 import android.app.Activity;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.text.TextUtils;
 
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+import com.sun.tinker.sns.share.demo.utils.RenditionProfile;
 import com.tencent.connect.share.QQShare;
 import com.tencent.tauth.IUiListener;
 import com.tencent.tauth.Tencent;
 import com.tencent.tauth.UiError;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * 分享内容给QQ好友
@@ -29,30 +33,55 @@ import java.io.File;
  * @author tinker<sunting.bcwl@gmail.com>
  */
 public class TencentShareUtil extends BaseShareUtil {
-    private static final String APP_ID = "222222";
+    static final String APP_ID = "222222";
 
-    private final Tencent mApi;
+    static final RenditionProfile LOCAL_PROFILE = new RenditionProfile("qq_local", 1920,
+            Bitmap.CompressFormat.JPEG, 90, 5 * 1024 * 1024);
+
+    /**
+     * 带透明通道的图片使用PNG：JPEG会把透明区域填充为白色，带透明的有损WEBP要到4.3才支持，
+     * QQ也不一定能识别.webp文件。PNG无法按质量控制大小，不限制字节数
+     */
+    static final RenditionProfile LOCAL_ALPHA_PROFILE = new RenditionProfile("qq_local_alpha", 1920,
+            Bitmap.CompressFormat.PNG, 100, RenditionProfile.NO_BYTE_LIMIT);
+
+    private final PlatformClients mClients;
 
     private IUiListener qqShareListener = new IUiListener() {
         @Override
         public void onCancel() {
-            mCallback.onCancel();
+            notifyCancel();
         }
 
         @Override
         public void onComplete(Object response) {
-            mCallback.onSuccess();
+            notifySuccess();
         }
 
         @Override
         public void onError(UiError e) {
-            mCallback.onError(e.errorMessage);
+            notifyError(e.errorMessage);
         }
     };
 
     public TencentShareUtil(Activity activity) {
         super(activity);
-        mApi = Tencent.createInstance(APP_ID, mContext);
+        mClients = PlatformClients.getInstance(mContext);
+    }
+
+    /**
+     * SDK客户端由{@link PlatformClients}共享，还未初始化完成时等到完成后再在主线程中分享，不阻塞主线程
+     */
+    private void shareToQQ(final Bundle params) {
+        mClients.getTencent(new PlatformClients.Callback<Tencent>() {
+            @Override
+            public void onClientReady(Tencent tencent) {
+                Activity activity = mActivity.get();
+                if (activity != null) {
+                    tencent.shareToQQ(activity, params, qqShareListener);
+                }
+            }
+        });
     }
 
     /**
@@ -89,7 +118,8 @@ public class TencentShareUtil extends BaseShareUtil {
         params.putString(QQShare.SHARE_TO_QQ_APP_NAME, "测试应用222222");
         params.putInt(QQShare.SHARE_TO_QQ_KEY_TYPE, QQShare.SHARE_TO_QQ_TYPE_DEFAULT);
 
-        mApi.shareToQQ(activity, params, qqShareListener);
+        onShareStarted(SharePlatform.QQ);
+        shareToQQ(params);
     }
 
     /**
@@ -101,11 +131,6 @@ public class TencentShareUtil extends BaseShareUtil {
      * @param imageUrl 图片本地路径
      */
     public void sendImageMessage(String imageUrl) {
-        Activity activity = mActivity.get();
-        if (activity == null) {
-            return;
-        }
-
         if (TextUtils.isEmpty(imageUrl)) {
             throw new IllegalArgumentException("Image url can not be empty.");
         }
@@ -115,11 +140,90 @@ public class TencentShareUtil extends BaseShareUtil {
             throw new IllegalArgumentException("Image must exist on local storage and be valid.");
         }
 
+        onShareStarted(SharePlatform.QQ);
+        shareImage(imageUrl);
+    }
+
+    private void shareImage(String imageUrl) {
+        Activity activity = mActivity.get();
+        if (activity == null) {
+            return;
+        }
+
         final Bundle params = new Bundle();
         params.putString(QQShare.SHARE_TO_QQ_IMAGE_LOCAL_URL, imageUrl);
         params.putInt(QQShare.SHARE_TO_QQ_KEY_TYPE, QQShare.SHARE_TO_QQ_TYPE_IMAGE);
 
-        mApi.shareToQQ(activity, params, qqShareListener);
+        shareToQQ(params);
+    }
+
+    /**
+     * 分享纯图片
+     * <p>
+     * QQ只支持本地图片，所以先在后台线程中将图片写入按内容命名的文件再分享，同一图片再次分享时直接使用已有文件；
+     * 分享请求发出后会关闭分享的Activity
+     * </p>
+     *
+     * @param bitmap 图片
+     */
+    public void sendImageMessage(final Bitmap bitmap) {
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Image must not be empty.");
+        }
+
+        onShareStarted(SharePlatform.QQ);
+        startPrepare(new PrepareTask<String>() {
+            @Override
+            protected String prepare() throws IOException {
+                return getLocalImage(RenditionCache.Source.fromBitmap(bitmap));
+            }
+
+            @Override
+            protected void onPrepared(String imageUrl) {
+                shareImage(imageUrl);
+                finish();
+            }
+        });
+    }
+
+    /**
+     * 获取可以交给QQ的本地图片文件，需要在后台线程中调用
+     *
+     * @return 文件路径
+     */
+    private String getLocalImage(RenditionCache.Source source) throws IOException {
+        try {
+            return getShareableFile(source, getLocalProfile(source)).getAbsolutePath();
+        } finally {
+            source.release();
+        }
+    }
+
+    /**
+     * 带透明像素的图片保存为PNG，否则保存为JPEG
+     */
+    static RenditionProfile getLocalProfile(RenditionCache.Source source) {
+        return source.hasAlpha() ? LOCAL_ALPHA_PROFILE : LOCAL_PROFILE;
+    }
+
+    @Override
+    protected Object buildBatchMessage(SharePlatform target, SharePreparation preparation) throws IOException {
+        if (preparation.getSource() == null) {
+            throw new IllegalArgumentException("QQ only supports image sharing.");
+        }
+        // 满足规格的公共目录原图或者外部缓存目录中的派生图片，QQ都可以直接读取
+        RenditionCache.Source source = preparation.getSource();
+        return getShareableFile(source, getLocalProfile(source)).getAbsolutePath();
+    }
+
+    /**
+     * QQ的分享结果需要通过Activity的onActivityResult转交，这里不会回调
+     */
+    @Override
+    protected boolean sendBatchMessage(SharePlatform target, Object message) {
+        onShareStarted(target);
+        shareImage((String) message);
+        return false;
     }
 
     /**
@@ -157,7 +261,8 @@ public class TencentShareUtil extends BaseShareUtil {
         }
         params.putInt(QQShare.SHARE_TO_QQ_KEY_TYPE, QQShare.SHARE_TO_QQ_TYPE_AUDIO);
 
-        mApi.shareToQQ(activity, params, qqShareListener);
+        onShareStarted(SharePlatform.QQ);
+        shareToQQ(params);
     }
 
 }
\ No newline at end of file
@@ -4,9 +4,12 @@ import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.ImageButton;
@@ -14,12 +17,13 @@ import android.widget.Toast;
 
 import com.sina.weibo.sdk.api.share.BaseResponse;
 import com.sun.tinker.sns.share.demo.R;
+import com.sun.tinker.sns.share.demo.utils.StartupTrace;
 import com.tencent.mm.sdk.openapi.BaseReq;
 import com.tencent.mm.sdk.openapi.BaseResp;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
 
 /**
  * <p>
@@ -33,6 +37,19 @@ import java.io.FileOutputStream;
  */
 public class WXEntryActivity extends Activity implements WeiboShareUtil.WeiboCallback,
         WechatShareUtil.WechatCallback, View.OnClickListener {
+    private static final String TAG = "WXEntryActivity";
+
+    static final String PHASE_SET_CONTENT_VIEW = "setContentView";
+    static final String PHASE_SDK_INIT = "sdkInit";
+    static final String PHASE_INIT_UI = "initUi";
+    static final String PHASE_INIT_DATA = "initData";
+    static final String PHASE_FIRST_FRAME = "firstFrame";
+
+    /**
+     * 打开分享界面后提前准备的平台：微信的缩略图和QQ的本地文件最耗时，也最常用
+     */
+    private static final EnumSet<SharePlatform> SPECULATIVE_TARGETS = EnumSet.of(SharePlatform.WECHAT_FRIENDS,
+            SharePlatform.WECHAT_TIMELINE, SharePlatform.QQ);
 
     private ImageButton mShareToWechatFriends;
     private ImageButton mShareToWechatTimeline;
@@ -47,17 +64,36 @@ public class WXEntryActivity extends Activity implements WeiboShareUtil.WeiboCal
     private String mText;
     private String mImageUrl;
     private Bitmap mBitmap;
+    /**
+     * mBitmap在{@link SharePayloadRegistry}中的token，界面结束时移除，重建时仍然可以取出
+     */
+    private String mBitmapToken;
+
+    /**
+     * 提前准备的分享内容，用户选择平台后直接发送；发送后置为null，之后再点击按原来的方式分享
+     */
+    private ShareBatch mSpeculation;
+    private ShareBatch mDispatchingBatch;
+
+    private StartupTrace mStartupTrace;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // 没有跳转时间时（例如从微信返回重建）从onCreate开始计算
+        long startTime = getIntent() != null ? getIntent().getLongExtra(BaseShareUtil.EXTRA_START_TIME,
+                SystemClock.elapsedRealtime()) : SystemClock.elapsedRealtime();
+        mStartupTrace = new StartupTrace(TAG, startTime);
+
+        mStartupTrace.beginPhase(PHASE_SET_CONTENT_VIEW);
         WindowManager.LayoutParams lp = getWindow().getAttributes();
         lp.gravity = Gravity.BOTTOM;
         lp.width = WindowManager.LayoutParams.MATCH_PARENT;
         getWindow().setAttributes(lp);
         setContentView(R.layout.activity_sns_share);
 
+        mStartupTrace.beginPhase(PHASE_SDK_INIT);
         mTencentShareUtil = new TencentShareUtil(this);
         mWeiboShareUtil = new WeiboShareUtil(this);
         mWechatShareUtil = new WechatShareUtil(this);
@@ -65,8 +101,38 @@ public class WXEntryActivity extends Activity implements WeiboShareUtil.WeiboCal
         mWeiboShareUtil.onCreate(this, savedInstanceState);
         mWechatShareUtil.onCreate(this, savedInstanceState);
 
+        mStartupTrace.beginPhase(PHASE_INIT_UI);
         initUi();
+        mStartupTrace.beginPhase(PHASE_INIT_DATA);
         initData();
+        mStartupTrace.beginPhase(PHASE_FIRST_FRAME);
+        traceFirstFrame();
+    }
+
+    /**
+     * 第一帧开始绘制时认为分享界面已经可以交互
+     */
+    private void traceFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                ViewTreeObserver observer = decorView.getViewTreeObserver();
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                mStartupTrace.markInteractive();
+                Log.d(TAG, mStartupTrace.toString());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 启动耗时记录，供基准测试读取
+     */
+    StartupTrace getStartupTrace() {
+        return mStartupTrace;
     }
 
     private void initUi() {
@@ -90,13 +156,72 @@ public class WXEntryActivity extends Activity implements WeiboShareUtil.WeiboCal
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mSpeculation != null) {
+            mSpeculation.cancel();
+            mSpeculation = null;
+        }
+        if (mDispatchingBatch != null) {
+            mDispatchingBatch.cancel();
+            mDispatchingBatch = null;
+        }
+        mTencentShareUtil.onDestroy();
+        mWeiboShareUtil.onDestroy();
+        mWechatShareUtil.onDestroy();
+        if (isFinishing()) {
+            SharePayloadRegistry.remove(mBitmapToken);
+        }
+        super.onDestroy();
+    }
+
     private void initData() {
         Intent intent = getIntent();
         if (intent != null) {
             mText = intent.getStringExtra(BaseShareUtil.EXTRA_TEXT);
             mImageUrl = intent.getStringExtra(BaseShareUtil.EXTRA_IMAGE_URL);
-            mBitmap = intent.getParcelableExtra(BaseShareUtil.EXTRA_BITMAP);
+            mBitmapToken = intent.getStringExtra(BaseShareUtil.EXTRA_BITMAP_TOKEN);
+            mBitmap = SharePayloadRegistry.resolve(mBitmapToken, Bitmap.class);
+            if (mBitmap == null) {
+                // 兼容直接通过Intent传递图片的调用方
+                mBitmap = intent.getParcelableExtra(BaseShareUtil.EXTRA_BITMAP);
+            }
         }
+        startSpeculation();
+    }
+
+    /**
+     * 在用户选择平台之前就开始获取和解码图片，并构建最可能用到的平台的消息
+     */
+    private void startSpeculation() {
+        if (mBitmap == null && TextUtils.isEmpty(mImageUrl)) {
+            return;
+        }
+
+        mSpeculation = new ShareBatch(mWechatShareUtil, mWeiboShareUtil, mTencentShareUtil);
+        if (mBitmap != null) {
+            mSpeculation.prepare(mText, mBitmap, SPECULATIVE_TARGETS);
+        } else {
+            mSpeculation.prepare(mText, mImageUrl, SPECULATIVE_TARGETS);
+        }
+    }
+
+    /**
+     * 使用提前准备的内容分享到target，结果和直接分享时一样提示
+     *
+     * @return 没有可用的准备结果时返回false
+     */
+    private boolean dispatchSpeculation(SharePlatform target, BaseShareUtil util) {
+        if (mSpeculation == null || !mSpeculation.canDispatch(target)) {
+            return false;
+        }
+
+        Log.d(TAG, "Share to " + target + " with " + (mSpeculation.isPrepared() ? "ready" : "pending")
+                + " speculative preparation.");
+        mDispatchingBatch = mSpeculation;
+        mSpeculation = null;
+        mDispatchingBatch.dispatch(Collections.singleton(target), new FeedbackListener(util.mCallback));
+        return true;
     }
 
     @Override
@@ -146,6 +271,11 @@ public class WXEntryActivity extends Activity implements WeiboShareUtil.WeiboCal
     }
 
     private void shareToWechat(boolean isTimeline) {
+        if (dispatchSpeculation(isTimeline ? SharePlatform.WECHAT_TIMELINE : SharePlatform.WECHAT_FRIENDS,
+                mWechatShareUtil)) {
+            return;
+        }
+
         if (mBitmap != null) {
             mWechatShareUtil.sendImageMessage(mBitmap, isTimeline);
         } else if (!TextUtils.isEmpty(mImageUrl)) {
@@ -166,21 +296,52 @@ public class WXEntryActivity extends Activity implements WeiboShareUtil.WeiboCal
     }
 
     private void shareToTencentQq() {
+        // 发送后由ShareBatch关闭当前界面
+        if (dispatchSpeculation(SharePlatform.QQ, mTencentShareUtil)) {
+            return;
+        }
+
         if (!TextUtils.isEmpty(mImageUrl)) {
             mTencentShareUtil.sendImageMessage(mImageUrl);
         } else if (mBitmap != null) {
-            // TODO maybe ANR in this place. Should better not put IO operation on main thread.
-            File f = new File(getExternalCacheDir(), "tencent_share_temp.png");
-            try {
-                mBitmap.compress(Bitmap.CompressFormat.PNG, 100, new FileOutputStream(f));
-            } catch (FileNotFoundException e) {
-            }
-            if (f.exists()) {
-                mTencentShareUtil.sendImageMessage(f.getAbsolutePath());
-            }
+            // 图片写入本地文件后由TencentShareUtil关闭当前界面
+            mTencentShareUtil.sendImageMessage(mBitmap);
+            return;
         } else {
             Toast.makeText(getApplicationContext(), R.string.tip_empty_image, Toast.LENGTH_SHORT).show();
         }
         finish();
     }
-}
\ No newline at end of file
+
+    /**
+     * 把单个平台的结果转交给该平台原来的回调
+     */
+    private static final class FeedbackListener implements ShareBatch.Listener {
+        private final BaseShareUtil.Callback mCallback;
+
+        FeedbackListener(BaseShareUtil.Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onTargetFinished(SharePlatform target, ShareBatch.Result result, String errorMsg) {
+            switch (result) {
+                case SUCCESS:
+                    mCallback.onSuccess();
+                    break;
+                case CANCEL:
+                    mCallback.onCancel();
+                    break;
+                case ERROR:
+                    mCallback.onError(errorMsg);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onBatchFinished(Map<SharePlatform, ShareBatch.Result> results) {
+        }
+    }
+}
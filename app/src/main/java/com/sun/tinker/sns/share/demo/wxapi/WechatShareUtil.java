@@ -6,18 +6,19 @@ import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.text.TextUtils;
 
-import com.sun.tinker.sns.share.demo.utils.ImageUtil;
+import com.sun.tinker.sns.share.demo.utils.DecodeSpec;
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+import com.sun.tinker.sns.share.demo.utils.RenditionProfile;
 import com.tencent.mm.sdk.openapi.BaseResp;
 import com.tencent.mm.sdk.openapi.IWXAPI;
 import com.tencent.mm.sdk.openapi.IWXAPIEventHandler;
 import com.tencent.mm.sdk.openapi.SendMessageToWX;
-import com.tencent.mm.sdk.openapi.WXAPIFactory;
 import com.tencent.mm.sdk.openapi.WXImageObject;
 import com.tencent.mm.sdk.openapi.WXMediaMessage;
 import com.tencent.mm.sdk.openapi.WXTextObject;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.URL;
 
 /**
  * 分享内容到微信好友或朋友圈
@@ -36,16 +37,42 @@ import java.net.URL;
  * @author tinker<sunting.bcwl@gmail.com>
  */
 public class WechatShareUtil extends BaseShareUtil {
-    private static final String APP_ID = "wxd930ea5d5a258f4f";
+    static final String APP_ID = "wxd930ea5d5a258f4f";
 
     private static final int THUMB_SIZE = 150;
 
-    private final IWXAPI mApi;
+    /**
+     * 微信要求缩略图不超过32KB，超出时分享会失败
+     */
+    private static final int THUMB_MAX_BYTES = 32 * 1024;
+
+    /**
+     * 微信要求图片不超过10MB；微信还会再次压缩，不透明的原图可以按RGB_565解码
+     */
+    static final RenditionProfile IMAGE_PROFILE = new RenditionProfile("wechat_image", 1280,
+            Bitmap.CompressFormat.JPEG, 85, 10 * 1024 * 1024).withRgb565Allowed(true);
+    /**
+     * 缩略图在聊天中以接近正方形的区域显示，超长的图片裁剪后再缩小，避免缩成一条细线
+     */
+    static final RenditionProfile THUMB_PROFILE = new RenditionProfile("wechat_thumb", THUMB_SIZE,
+            Bitmap.CompressFormat.JPEG, 90, THUMB_MAX_BYTES).withMaxAspectRatio(2).withRgb565Allowed(true);
+
+    private final PlatformClients mClients;
+
+    private volatile RenditionProfile mThumbProfile = THUMB_PROFILE;
 
     public WechatShareUtil(Activity activity) {
         super(activity);
-        mApi = WXAPIFactory.createWXAPI(mContext, APP_ID, false);
-        mApi.registerApp(APP_ID);
+        mClients = PlatformClients.getInstance(mContext);
+    }
+
+    /**
+     * 设置缩略图编码后的最大字节数，默认32KB
+     *
+     * @param maxBytes 字节数
+     */
+    public void setThumbMaxBytes(int maxBytes) {
+        mThumbProfile = THUMB_PROFILE.withMaxBytes(maxBytes);
     }
 
     /**
@@ -55,6 +82,7 @@ public class WechatShareUtil extends BaseShareUtil {
      * @param isTimeline true为分享到朋友圈，false为微信好友
      */
     public void sendTextMessage(String text, boolean isTimeline) {
+        onShareStarted(platformOf(isTimeline));
         WXTextObject textObj = new WXTextObject();
         textObj.text = text;
 
@@ -63,34 +91,31 @@ public class WechatShareUtil extends BaseShareUtil {
         msg.mediaObject = textObj;
         msg.description = text;
 
-        SendMessageToWX.Req req = new SendMessageToWX.Req();
-        req.transaction = buildTransaction("text"); // transaction字段用于唯一标识一个请求
-        req.message = msg;
-        req.scene = isTimeline ? SendMessageToWX.Req.WXSceneTimeline : SendMessageToWX.Req.WXSceneSession;
-
         // 调用api接口发送数据到微信
-        mApi.sendReq(req);
+        sendMediaMessage(msg, "text", isTimeline);
     }
 
     /**
      * 发送图片内容
+     * <p>
+     * 图片的下载、解码和压缩在后台线程中进行
+     * </p>
      *
      * @param imageUrl 图片地址
      * @param isTimeline true为分享到朋友圈，false为微信好友
      */
-    public void sendImageMessage(String imageUrl, boolean isTimeline) {
-        Bitmap bitmap = null;
-        if (!TextUtils.isEmpty(imageUrl)) {
-            if (isUrlFromNetwork(imageUrl)) {
-                try {
-                    bitmap = decodeStream(new URL(imageUrl).openStream());
-                } catch (IOException e) {
-                }
-            } else {
-                bitmap = decodeFile(imageUrl);
-            }
+    public void sendImageMessage(final String imageUrl, boolean isTimeline) {
+        if (TextUtils.isEmpty(imageUrl)) {
+            throw new IllegalArgumentException("Image must not be empty.");
         }
-        sendImageMessage(bitmap, isTimeline);
+
+        onShareStarted(platformOf(isTimeline));
+        startPrepare(new ImageMessageTask(isTimeline) {
+            @Override
+            protected RenditionCache.Source createSource() throws IOException {
+                return getImageSource(imageUrl);
+            }
+        });
     }
 
     /**
@@ -99,35 +124,161 @@ public class WechatShareUtil extends BaseShareUtil {
      * @param imgRes 图片资源id
      * @param isTimeline true为分享到朋友圈，false为微信好友
      */
-    public void sendImageMessage(int imgRes, boolean isTimeline) {
-        Bitmap bitmap = decodeResource(imgRes);
-        sendImageMessage(bitmap, isTimeline);
+    public void sendImageMessage(final int imgRes, boolean isTimeline) {
+        onShareStarted(platformOf(isTimeline));
+        startPrepare(new ImageMessageTask(isTimeline) {
+            @Override
+            protected RenditionCache.Source createSource() throws IOException {
+                mBitmap = decodeResource(imgRes);
+                if (mBitmap == null) {
+                    throw new IOException("Failed to decode image.");
+                }
+                return RenditionCache.Source.fromBitmap(mBitmap);
+            }
+        });
     }
 
     /**
      * 发送图片内容
+     * <p>
+     * 不会修改或回收传入的图片，分享失败后调用者仍然可以继续使用
+     * </p>
      *
      * @param bitmap 图片
      * @param isTimeline true为分享到朋友圈，false为微信好友
      */
-    public void sendImageMessage(Bitmap bitmap, boolean isTimeline) {
+    public void sendImageMessage(final Bitmap bitmap, boolean isTimeline) {
         if (bitmap == null) {
             throw new IllegalArgumentException("Image must not be empty.");
         }
 
-        WXImageObject imgObj = new WXImageObject(bitmap);
-        Bitmap thumbBmp = Bitmap.createScaledBitmap(bitmap, THUMB_SIZE, THUMB_SIZE, true);
-        bitmap.recycle();
+        onShareStarted(platformOf(isTimeline));
+        startPrepare(new ImageMessageTask(isTimeline) {
+            @Override
+            protected RenditionCache.Source createSource() {
+                return RenditionCache.Source.fromBitmap(bitmap);
+            }
+        });
+    }
+
+    /**
+     * 图片资源解码后只用于生成图片和缩略图，规格与{@link #IMAGE_PROFILE}一致，允许RGB_565
+     */
+    @Override
+    protected DecodeSpec getDecodeSpec() {
+        return super.getDecodeSpec().setRgb565Allowed(true);
+    }
+
+    /**
+     * 构建图片消息，图片和缩略图按各自的规格从派生图片缓存中获取，需要在后台线程中调用
+     * <p>
+     * 图片文件微信可以读取时只传递路径，不把内容复制到消息中；缩略图只能以内容传递
+     * </p>
+     */
+    private WXMediaMessage buildImageMessage(RenditionCache.Source source) throws IOException {
+        WXImageObject imgObj = new WXImageObject();
+        File file = getShareableFile(source, IMAGE_PROFILE);
+        if (isPrivateFile(file)) {
+            imgObj.imageData = getRendition(source, IMAGE_PROFILE);
+        } else {
+            imgObj.setImagePath(file.getAbsolutePath());
+        }
 
         WXMediaMessage msg = new WXMediaMessage();
         msg.mediaObject = imgObj;
-        msg.thumbData = ImageUtil.bitmap2Bytes(thumbBmp, true);
+        msg.thumbData = getRendition(source, mThumbProfile);
+        return msg;
+    }
+
+    /**
+     * 好友和朋友圈共用同一个消息
+     */
+    @Override
+    protected Object buildBatchMessage(SharePlatform target, SharePreparation preparation) throws IOException {
+        WXMediaMessage msg = preparation.getArtifact(WXMediaMessage.class);
+        if (msg == null) {
+            if (preparation.getSource() != null) {
+                msg = buildImageMessage(preparation.getSource());
+            } else if (!TextUtils.isEmpty(preparation.getText())) {
+                WXTextObject textObj = new WXTextObject();
+                textObj.text = preparation.getText();
+                msg = new WXMediaMessage();
+                msg.mediaObject = textObj;
+                msg.description = preparation.getText();
+            } else {
+                throw new IllegalArgumentException("Must have either text or image.");
+            }
+            preparation.putArtifact(WXMediaMessage.class, msg);
+        }
+        return msg;
+    }
+
+    @Override
+    protected boolean sendBatchMessage(SharePlatform target, Object message) {
+        WXMediaMessage msg = (WXMediaMessage) message;
+        onShareStarted(target);
+        sendMediaMessage(msg, msg.mediaObject instanceof WXTextObject ? "text" : "img",
+                target == SharePlatform.WECHAT_TIMELINE);
+        return true;
+    }
+
+    private static SharePlatform platformOf(boolean isTimeline) {
+        return isTimeline ? SharePlatform.WECHAT_TIMELINE : SharePlatform.WECHAT_FRIENDS;
+    }
 
-        SendMessageToWX.Req req = new SendMessageToWX.Req();
-        req.transaction = buildTransaction("img");
+    /**
+     * SDK客户端由{@link PlatformClients}共享，还未初始化完成时等到完成后再在主线程中发送，不阻塞主线程
+     */
+    private void sendMediaMessage(WXMediaMessage msg, String type, boolean isTimeline) {
+        final SendMessageToWX.Req req = new SendMessageToWX.Req();
+        req.transaction = beginTransaction(type); // transaction字段用于唯一标识一个请求
         req.message = msg;
         req.scene = isTimeline ? SendMessageToWX.Req.WXSceneTimeline : SendMessageToWX.Req.WXSceneSession;
-        mApi.sendReq(req);
+        mClients.getWechatApi(new PlatformClients.Callback<IWXAPI>() {
+            @Override
+            public void onClientReady(IWXAPI api) {
+                if (!api.sendReq(req)) {
+                    // 微信未安装或者版本过低时不会有结果返回
+                    notifyError(req.transaction, "Failed to send request to WeChat.");
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台线程中获取图片并构建图片消息，完成后在主线程中发送到微信
+     */
+    private abstract class ImageMessageTask extends PrepareTask<WXMediaMessage> {
+        private final boolean mIsTimeline;
+
+        /**
+         * 本类自己解码得到、构建消息后需要归还复用池的图片，调用者传入的图片不能放在这里
+         */
+        protected Bitmap mBitmap;
+
+        ImageMessageTask(boolean isTimeline) {
+            mIsTimeline = isTimeline;
+        }
+
+        protected abstract RenditionCache.Source createSource() throws IOException;
+
+        @Override
+        protected WXMediaMessage prepare() throws IOException {
+            RenditionCache.Source source = createSource();
+            try {
+                return buildImageMessage(source);
+            } finally {
+                source.release();
+                if (mBitmap != null) {
+                    releaseBitmap(mBitmap);
+                }
+            }
+        }
+
+        @Override
+        protected void onPrepared(WXMediaMessage msg) {
+            sendMediaMessage(msg, "img", mIsTimeline);
+        }
     }
 
     /**
@@ -140,10 +291,7 @@ public class WechatShareUtil extends BaseShareUtil {
      * </p>
      */
     public void onCreate(Activity activity, Bundle savedInstanceState) {
-        IWXAPIEventHandler callback = getCallback();
-        if (callback != null) {
-            mApi.handleIntent(activity.getIntent(), callback);
-        }
+        handleIntent(activity.getIntent());
     }
 
     /**
@@ -156,10 +304,25 @@ public class WechatShareUtil extends BaseShareUtil {
      * </p>
      */
     public void onNewIntent(Intent intent) {
-        IWXAPIEventHandler callback = getCallback();
-        if (callback != null) {
-            mApi.handleIntent(intent, callback);
+        handleIntent(intent);
+    }
+
+    /**
+     * 这两个方法都在主线程中调用，SDK客户端还未初始化完成时等到完成后再处理，不阻塞Activity的启动
+     */
+    private void handleIntent(final Intent intent) {
+        if (getCallback() == null) {
+            return;
         }
+        mClients.getWechatApi(new PlatformClients.Callback<IWXAPI>() {
+            @Override
+            public void onClientReady(IWXAPI api) {
+                IWXAPIEventHandler callback = getCallback();
+                if (callback != null) {
+                    api.handleIntent(intent, callback);
+                }
+            }
+        });
     }
 
     private IWXAPIEventHandler getCallback() {
@@ -170,28 +333,25 @@ public class WechatShareUtil extends BaseShareUtil {
         return null;
     }
 
-    private String buildTransaction(final String type) {
-        return (type == null) ? String.valueOf(System.currentTimeMillis()) : type + System.currentTimeMillis();
-    }
-
     /**
      * 默认的分享完成回调
      */
     public void onResponse(BaseResp resp) {
         switch (resp.errCode) {
             case BaseResp.ErrCode.ERR_OK:
-                mCallback.onSuccess();
+                notifySuccess(resp.transaction);
                 finish();
                 break;
             case BaseResp.ErrCode.ERR_USER_CANCEL:
-                mCallback.onCancel();
+                notifyCancel(resp.transaction);
                 finish();
                 break;
             case BaseResp.ErrCode.ERR_AUTH_DENIED:
-                mCallback.onError(resp.errStr);
+                notifyError(resp.transaction, resp.errStr);
                 finish();
                 break;
             default:
+                endTransaction(resp.transaction);
                 finish();
                 break;
         }
@@ -29,29 +29,38 @@ import com.sina.weibo.sdk.auth.Oauth2AccessToken;
  * @since 2013-10-07
  */
 public class WeiboAccessTokenKeeper {
-    private static final String PREFERENCES_NAME = "com_weibo_sdk_android";
+    static final String PREFERENCES_NAME = "com_weibo_sdk_android";
 
     private static final String KEY_UID           = "uid";
     private static final String KEY_ACCESS_TOKEN  = "access_token";
     private static final String KEY_EXPIRES_IN    = "expires_in";
+    private static final String KEY_REFRESH_TOKEN = "refresh_token";
     
     /**
-     * 保存 Token 对象到 SharedPreferences。
+     * 保存 Token 对象到 SharedPreferences，异步写入磁盘，不阻塞调用线程。
      * 
      * @param context 应用程序上下文环境
      * @param token   Token 对象
      */
     public static void writeAccessToken(Context context, Oauth2AccessToken token) {
+        writeAccessToken(context, PREFERENCES_NAME, token);
+    }
+
+    /**
+     * 保存 Token 对象到指定的 SharedPreferences，测试时使用独立的文件，不影响真实的 Token。
+     */
+    static void writeAccessToken(Context context, String prefsName, Oauth2AccessToken token) {
         if (null == context || null == token) {
             return;
         }
 
-        SharedPreferences pref = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_APPEND);
+        SharedPreferences pref = context.getSharedPreferences(prefsName, Context.MODE_APPEND);
         Editor editor = pref.edit();
         editor.putString(KEY_UID, token.getUid());
         editor.putString(KEY_ACCESS_TOKEN, token.getToken());
         editor.putLong(KEY_EXPIRES_IN, token.getExpiresTime());
-        editor.commit();
+        editor.putString(KEY_REFRESH_TOKEN, token.getRefreshToken());
+        editor.apply();
     }
 
     /**
@@ -62,31 +71,46 @@ public class WeiboAccessTokenKeeper {
      * @return 返回 Token 对象
      */
     public static Oauth2AccessToken readAccessToken(Context context) {
+        return readAccessToken(context, PREFERENCES_NAME);
+    }
+
+    /**
+     * 从指定的 SharedPreferences 读取 Token 信息。
+     */
+    static Oauth2AccessToken readAccessToken(Context context, String prefsName) {
         if (null == context) {
             return null;
         }
 
         Oauth2AccessToken token = new Oauth2AccessToken();
-        SharedPreferences pref = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_APPEND);
+        SharedPreferences pref = context.getSharedPreferences(prefsName, Context.MODE_APPEND);
         token.setUid(pref.getString(KEY_UID, ""));
         token.setToken(pref.getString(KEY_ACCESS_TOKEN, ""));
         token.setExpiresTime(pref.getLong(KEY_EXPIRES_IN, 0));
+        token.setRefreshToken(pref.getString(KEY_REFRESH_TOKEN, ""));
         return token;
     }
 
     /**
-     * 清空 SharedPreferences 中 Token信息。
+     * 清空 SharedPreferences 中 Token信息，异步写入磁盘。
      * 
      * @param context 应用程序上下文环境
      */
     public static void clear(Context context) {
+        clear(context, PREFERENCES_NAME);
+    }
+
+    /**
+     * 清空指定的 SharedPreferences 中 Token信息，异步写入磁盘。
+     */
+    static void clear(Context context, String prefsName) {
         if (null == context) {
             return;
         }
         
-        SharedPreferences pref = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_APPEND);
+        SharedPreferences pref = context.getSharedPreferences(prefsName, Context.MODE_APPEND);
         Editor editor = pref.edit();
         editor.clear();
-        editor.commit();
+        editor.apply();
     }
 }
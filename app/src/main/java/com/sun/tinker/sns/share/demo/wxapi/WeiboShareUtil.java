@@ -13,12 +13,15 @@ import com.sina.weibo.sdk.api.share.BaseResponse;
 import com.sina.weibo.sdk.api.share.IWeiboHandler;
 import com.sina.weibo.sdk.api.share.IWeiboShareAPI;
 import com.sina.weibo.sdk.api.share.SendMultiMessageToWeiboRequest;
-import com.sina.weibo.sdk.api.share.WeiboShareSDK;
 import com.sina.weibo.sdk.auth.AuthInfo;
 import com.sina.weibo.sdk.auth.Oauth2AccessToken;
 import com.sina.weibo.sdk.auth.WeiboAuthListener;
 import com.sina.weibo.sdk.constant.WBConstants;
 import com.sina.weibo.sdk.exception.WeiboException;
+import com.sun.tinker.sns.share.demo.utils.RenditionCache;
+import com.sun.tinker.sns.share.demo.utils.RenditionProfile;
+
+import java.io.IOException;
 
 /**
  * 分享内容到新浪微博
@@ -50,30 +53,48 @@ import com.sina.weibo.sdk.exception.WeiboException;
  * @author tinker<sunting.bcwl@gmail.com>
  */
 public class WeiboShareUtil extends BaseShareUtil {
-    private static final String APP_KEY = "2045436852";
-    private static final String REDIRECT_URL = "";
+    static final String APP_KEY = "2045436852";
+    static final String APP_SECRET = "";
+
+    /**
+     * 微博要求图片不超过2MB；微博还会再次压缩，不透明的原图可以按RGB_565解码
+     */
+    static final RenditionProfile IMAGE_PROFILE = new RenditionProfile("weibo_image", 1440,
+            Bitmap.CompressFormat.JPEG, 85, 2 * 1024 * 1024).withRgb565Allowed(true);
+    static final String REDIRECT_URL = "";
     private static final String SCOPE = "";
 
-    private final IWeiboShareAPI mApi;
+    private final PlatformClients mClients;
 
     public WeiboShareUtil(Activity activity) {
         super(activity);
-        mApi = WeiboShareSDK.createWeiboAPI(mContext, APP_KEY);
-        mApi.registerApp();
+        mClients = PlatformClients.getInstance(mContext);
+        // 在后台提前刷新即将过期的Token，分享时尽量不需要重新授权
+        WeiboTokenRefresher.getInstance(mContext).start();
     }
 
     /**
      * 发送文字和图片消息到微博
+     * <p>
+     * 图片的解码和压缩在后台线程中进行
+     * </p>
      *
      * @param text       分享的文字内容
      * @param pictureUrl 分享的图片内容
      */
-    public void sendMessage(String text, String pictureUrl) {
-        Bitmap bitmap = null;
-        if (!TextUtils.isEmpty(pictureUrl)) {
-            bitmap = decodeFile(pictureUrl);
+    public void sendMessage(final String text, final String pictureUrl) {
+        if (TextUtils.isEmpty(pictureUrl)) {
+            sendMessage(text, (Bitmap) null);
+            return;
         }
-        sendMessage(text, bitmap);
+
+        onShareStarted(SharePlatform.WEIBO);
+        startPrepare(new MessageTask(text) {
+            @Override
+            protected RenditionCache.Source createSource() throws IOException {
+                return getImageSource(pictureUrl);
+            }
+        });
     }
 
     /**
@@ -82,48 +103,89 @@ public class WeiboShareUtil extends BaseShareUtil {
      * @param text   分享的文字内容
      * @param bitmap 分享的图片内容
      */
-    public void sendMessage(String text, Bitmap bitmap) {
-        Activity activity = mActivity.get();
-        if (activity == null) {
-            return;
+    public void sendMessage(final String text, final Bitmap bitmap) {
+        if (TextUtils.isEmpty(text) && bitmap == null) {
+            throw new IllegalArgumentException("Must have either text or image.");
         }
 
-        // 1. 初始化微博的分享消息
-        WeiboMultiMessage weiboMessage = new WeiboMultiMessage();
+        onShareStarted(SharePlatform.WEIBO);
+        startPrepare(new MessageTask(text) {
+            @Override
+            protected RenditionCache.Source createSource() {
+                return bitmap != null ? RenditionCache.Source.fromBitmap(bitmap) : null;
+            }
+        });
+    }
 
-        boolean hasContent = false;
+    /**
+     * 构建微博的分享消息，图片按微博的规格从派生图片缓存中获取，需要在后台线程中调用
+     */
+    private WeiboMultiMessage buildMessage(String text, RenditionCache.Source source) throws IOException {
+        WeiboMultiMessage weiboMessage = new WeiboMultiMessage();
 
         if (!TextUtils.isEmpty(text)) {
             TextObject textObject = new TextObject();
             textObject.text = text;
             weiboMessage.textObject = textObject;
-            hasContent = true;
         }
 
-        if (bitmap != null) {
+        if (source != null) {
             ImageObject imageObject = new ImageObject();
-            imageObject.setImageObject(bitmap);
+            imageObject.imageData = getRendition(source, IMAGE_PROFILE);
             weiboMessage.imageObject = imageObject;
-            hasContent = true;
         }
+        return weiboMessage;
+    }
 
-        if (!hasContent) {
+    @Override
+    protected Object buildBatchMessage(SharePlatform target, SharePreparation preparation) throws IOException {
+        if (TextUtils.isEmpty(preparation.getText()) && preparation.getSource() == null) {
             throw new IllegalArgumentException("Must have either text or image.");
         }
+        return buildMessage(preparation.getText(), preparation.getSource());
+    }
 
-        // 2. 初始化从第三方到微博的消息请求
-        SendMultiMessageToWeiboRequest request = new SendMultiMessageToWeiboRequest();
+    @Override
+    protected boolean sendBatchMessage(SharePlatform target, Object message) {
+        onShareStarted(target);
+        sendMessage((WeiboMultiMessage) message);
+        return true;
+    }
+
+    /**
+     * SDK客户端由{@link PlatformClients}共享，还未初始化完成时等到完成后再在主线程中发送，不阻塞主线程
+     */
+    private void sendMessage(WeiboMultiMessage weiboMessage) {
+        if (mActivity.get() == null) {
+            return;
+        }
+
+        // 初始化从第三方到微博的消息请求
+        final SendMultiMessageToWeiboRequest request = new SendMultiMessageToWeiboRequest();
         // 用transaction唯一标识一个请求
-        request.transaction = String.valueOf(System.currentTimeMillis());
+        request.transaction = beginTransaction("weibo");
         request.multiMessage = weiboMessage;
 
+        mClients.getWeiboApi(new PlatformClients.Callback<IWeiboShareAPI>() {
+            @Override
+            public void onClientReady(IWeiboShareAPI api) {
+                Activity activity = mActivity.get();
+                if (activity != null) {
+                    sendRequest(api, activity, request);
+                }
+            }
+        });
+    }
+
+    private void sendRequest(IWeiboShareAPI api, Activity activity, SendMultiMessageToWeiboRequest request) {
         AuthInfo authInfo = new AuthInfo(mContext, APP_KEY, REDIRECT_URL, SCOPE);
-        Oauth2AccessToken accessToken = WeiboAccessTokenKeeper.readAccessToken(mContext);
+        final WeiboTokenStore tokenStore = WeiboTokenStore.getInstance(mContext);
+        Oauth2AccessToken accessToken = tokenStore.getValidToken();
         String token = "";
         if (accessToken != null) {
             token = accessToken.getToken();
         }
-        mApi.sendRequest(activity, request, authInfo, token, new WeiboAuthListener() {
+        api.sendRequest(activity, request, authInfo, token, new WeiboAuthListener() {
 
             @Override
             public void onWeiboException(WeiboException arg0) {
@@ -132,7 +194,8 @@ public class WeiboShareUtil extends BaseShareUtil {
             @Override
             public void onComplete(Bundle bundle) {
                 Oauth2AccessToken newToken = Oauth2AccessToken.parseAccessToken(bundle);
-                WeiboAccessTokenKeeper.writeAccessToken(mContext, newToken);
+                tokenStore.setToken(newToken);
+                WeiboTokenRefresher.getInstance(mContext).reschedule();
             }
 
             @Override
@@ -141,6 +204,42 @@ public class WeiboShareUtil extends BaseShareUtil {
         });
     }
 
+    /**
+     * 在后台线程中获取图片并构建微博消息，完成后在主线程中发送到微博
+     */
+    private abstract class MessageTask extends PrepareTask<WeiboMultiMessage> {
+        private final String mText;
+
+        /**
+         * @param text 分享的文字内容
+         */
+        MessageTask(String text) {
+            mText = text;
+        }
+
+        /**
+         * @return 没有图片时返回null
+         */
+        protected abstract RenditionCache.Source createSource() throws IOException;
+
+        @Override
+        protected WeiboMultiMessage prepare() throws IOException {
+            RenditionCache.Source source = createSource();
+            try {
+                return buildMessage(mText, source);
+            } finally {
+                if (source != null) {
+                    source.release();
+                }
+            }
+        }
+
+        @Override
+        protected void onPrepared(WeiboMultiMessage weiboMessage) {
+            sendMessage(weiboMessage);
+        }
+    }
+
     /**
      * <p>
      * 当 Activity 被重新初始化时（该 Activity 处于后台时，可能会由于内存不足被杀掉了），
@@ -155,7 +254,7 @@ public class WeiboShareUtil extends BaseShareUtil {
     public void onCreate(Activity activity, Bundle savedInstanceState) {
         IWeiboHandler.Response response = getCallback();
         if (savedInstanceState != null && response != null) {
-            mApi.handleWeiboResponse(activity.getIntent(), response);
+            handleWeiboResponse(activity.getIntent());
         }
     }
 
@@ -172,10 +271,25 @@ public class WeiboShareUtil extends BaseShareUtil {
     public void onNewIntent(Intent intent) {
         IWeiboHandler.Response response = getCallback();
         if (response != null) {
-            mApi.handleWeiboResponse(intent, response);
+            handleWeiboResponse(intent);
         }
     }
 
+    /**
+     * 这两个方法都在主线程中调用，SDK客户端还未初始化完成时等到完成后再处理，不阻塞Activity的启动
+     */
+    private void handleWeiboResponse(final Intent intent) {
+        mClients.getWeiboApi(new PlatformClients.Callback<IWeiboShareAPI>() {
+            @Override
+            public void onClientReady(IWeiboShareAPI api) {
+                IWeiboHandler.Response response = getCallback();
+                if (response != null) {
+                    api.handleWeiboResponse(intent, response);
+                }
+            }
+        });
+    }
+
     private IWeiboHandler.Response getCallback() {
         Activity activity = mActivity.get();
         if (activity instanceof IWeiboHandler.Response) {
@@ -190,18 +304,19 @@ public class WeiboShareUtil extends BaseShareUtil {
     public void onResponse(BaseResponse baseResponse) {
         switch (baseResponse.errCode) {
             case WBConstants.ErrorCode.ERR_OK:
-                mCallback.onSuccess();
+                notifySuccess(baseResponse.transaction);
                 finish();
                 break;
             case WBConstants.ErrorCode.ERR_CANCEL:
-                mCallback.onCancel();
+                notifyCancel(baseResponse.transaction);
                 finish();
                 break;
             case WBConstants.ErrorCode.ERR_FAIL:
-                mCallback.onError(baseResponse.errMsg);
+                notifyError(baseResponse.transaction, baseResponse.errMsg);
                 finish();
                 break;
             default:
+                endTransaction(baseResponse.transaction);
                 finish();
                 break;
         }
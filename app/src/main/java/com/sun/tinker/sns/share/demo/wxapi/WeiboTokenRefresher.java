@@ -0,0 +1,239 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.content.Context;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.sina.weibo.sdk.auth.Oauth2AccessToken;
+import com.sun.tinker.sns.share.demo.utils.HttpFetcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 微博Token的后台刷新
+ * <p>
+ * 在Token过期之前使用refresh_token换取新的Token，分享时就不需要再经过交互式授权。
+ * 刷新失败时按指数退避并加入随机抖动后重试，超过最大重试次数后等待下一次{@link #reschedule()}
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class WeiboTokenRefresher {
+    private static final String TAG = "WeiboTokenRefresher";
+
+    public static final String DEFAULT_ENDPOINT = "https://api.weibo.com/oauth2/access_token";
+
+    /**
+     * 提前多久刷新
+     */
+    static final long REFRESH_AHEAD_MILLIS = 60 * 60 * 1000;
+    static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+    static final int MAX_ATTEMPTS = 6;
+
+    private static WeiboTokenRefresher sInstance;
+
+    private final WeiboTokenStore mStore;
+    private final String mEndpoint;
+    private final String mAppKey;
+    private final String mAppSecret;
+    private final String mRedirectUrl;
+
+    private final Random mRandom = new Random();
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "weibo-token-refresh");
+        }
+    });
+
+    private ScheduledFuture<?> mScheduled;
+    private int mAttempts;
+
+    /**
+     * @param store       Token的保存位置
+     * @param endpoint    刷新Token的接口地址
+     * @param appKey
+     * @param appSecret
+     * @param redirectUrl
+     */
+    WeiboTokenRefresher(WeiboTokenStore store, String endpoint, String appKey, String appSecret,
+                        String redirectUrl) {
+        mStore = store;
+        mEndpoint = endpoint;
+        mAppKey = appKey;
+        mAppSecret = appSecret;
+        mRedirectUrl = redirectUrl;
+    }
+
+    public static synchronized WeiboTokenRefresher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeiboTokenRefresher(WeiboTokenStore.getInstance(context), DEFAULT_ENDPOINT,
+                    WeiboShareUtil.APP_KEY, WeiboShareUtil.APP_SECRET, WeiboShareUtil.REDIRECT_URL);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 开始后台刷新，已经安排了刷新时不做处理
+     */
+    public synchronized void start() {
+        if (mScheduled == null || mScheduled.isDone()) {
+            reschedule();
+        }
+    }
+
+    /**
+     * 根据当前Token的过期时间重新安排刷新，并清空重试次数。Token变化后应调用此方法
+     * <p>
+     * 没有配置App Secret时刷新必然失败，不安排刷新
+     * </p>
+     */
+    public synchronized void reschedule() {
+        mAttempts = 0;
+        if (TextUtils.isEmpty(mAppSecret)) {
+            Log.w(TAG, "App secret is not configured, token refresh is disabled.");
+            return;
+        }
+        schedule(0);
+    }
+
+    /**
+     * 停止后台刷新
+     */
+    public synchronized void stop() {
+        if (mScheduled != null) {
+            mScheduled.cancel(false);
+            mScheduled = null;
+        }
+    }
+
+    /**
+     * 停止后台刷新并结束刷新线程，之后不能再使用
+     */
+    synchronized void shutdown() {
+        stop();
+        mExecutor.shutdownNow();
+    }
+
+    synchronized boolean isScheduled() {
+        return mScheduled != null && !mScheduled.isDone();
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        stop();
+        mScheduled = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        Oauth2AccessToken token = mStore.getToken();
+        if (token == null || TextUtils.isEmpty(token.getRefreshToken())) {
+            // 没有refresh_token时只能在分享时重新授权
+            return;
+        }
+
+        long remaining = token.getExpiresTime() - System.currentTimeMillis();
+        if (remaining > REFRESH_AHEAD_MILLIS) {
+            schedule(remaining - REFRESH_AHEAD_MILLIS);
+            return;
+        }
+
+        boolean success;
+        try {
+            success = refresh(token);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to refresh token.", e);
+            success = false;
+        }
+
+        synchronized (this) {
+            if (success) {
+                reschedule();
+            } else if (++mAttempts < MAX_ATTEMPTS) {
+                schedule(getBackoffMillis(mAttempts));
+            }
+        }
+    }
+
+    /**
+     * 第attempt次失败后的等待时间，在指数退避的基础上随机取[1/2, 1]倍，避免多个客户端同时重试
+     */
+    long getBackoffMillis(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return backoff / 2 + (long) (mRandom.nextDouble() * (backoff / 2));
+    }
+
+    /**
+     * 立即刷新Token，在当前线程中执行网络请求
+     *
+     * @return 是否成功
+     * @throws IOException
+     */
+    boolean refresh(Oauth2AccessToken token) throws IOException {
+        String body = "client_id=" + encode(mAppKey)
+                + "&client_secret=" + encode(mAppSecret)
+                + "&grant_type=refresh_token"
+                + "&redirect_uri=" + encode(mRedirectUrl)
+                + "&refresh_token=" + encode(token.getRefreshToken());
+
+        HttpFetcher.Response response = HttpFetcher.getInstance().post(mEndpoint,
+                "application/x-www-form-urlencoded", body.getBytes("UTF-8"));
+        try {
+            int code = response.getCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Unexpected response " + code + " when refreshing token.");
+                return false;
+            }
+
+            Oauth2AccessToken newToken = Oauth2AccessToken.parseAccessToken(readString(response.getBody()));
+            if (newToken == null || !newToken.isSessionValid()) {
+                return false;
+            }
+            if (TextUtils.isEmpty(newToken.getRefreshToken())) {
+                newToken.setRefreshToken(token.getRefreshToken());
+            }
+            if (TextUtils.isEmpty(newToken.getUid())) {
+                newToken.setUid(token.getUid());
+            }
+            mStore.setToken(newToken);
+            return true;
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return value != null ? URLEncoder.encode(value, "UTF-8") : "";
+    }
+
+    private static String readString(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toString("UTF-8");
+    }
+}
@@ -0,0 +1,102 @@
+package com.sun.tinker.sns.share.demo.wxapi;
+
+import android.content.Context;
+
+import com.sina.weibo.sdk.auth.Oauth2AccessToken;
+
+/**
+ * 微博Token的内存缓存
+ * <p>
+ * Token只在第一次使用时从SharedPreferences读取一次，之后的读取都直接返回内存中的对象；
+ * 写入时先更新内存，再通过{@link WeiboAccessTokenKeeper}异步写入磁盘，不阻塞主线程
+ * </p>
+ *
+ * @author tinker<sunting.bcwl@gmail.com>
+ */
+public final class WeiboTokenStore {
+    private static WeiboTokenStore sInstance;
+
+    private final Context mContext;
+    private final String mPrefsName;
+    private final Object mLoadLock = new Object();
+
+    private volatile Oauth2AccessToken mToken;
+    private volatile boolean mLoaded;
+
+    /**
+     * @param prefsName 保存Token的SharedPreferences名称，测试时使用独立的名称，不影响应用真实的Token
+     */
+    WeiboTokenStore(Context context, String prefsName) {
+        mContext = context.getApplicationContext();
+        mPrefsName = prefsName;
+    }
+
+    public static synchronized WeiboTokenStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeiboTokenStore(context, WeiboAccessTokenKeeper.PREFERENCES_NAME);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 获取保存的Token，可能已经过期
+     *
+     * @return 没有保存过Token时返回null
+     */
+    public Oauth2AccessToken getToken() {
+        if (!mLoaded) {
+            synchronized (mLoadLock) {
+                if (!mLoaded) {
+                    Oauth2AccessToken token = WeiboAccessTokenKeeper.readAccessToken(mContext, mPrefsName);
+                    mToken = token != null && token.getToken().length() > 0 ? token : null;
+                    mLoaded = true;
+                }
+            }
+        }
+        return mToken;
+    }
+
+    /**
+     * 获取未过期的Token
+     *
+     * @return 没有Token或者已经过期时返回null
+     */
+    public Oauth2AccessToken getValidToken() {
+        Oauth2AccessToken token = getToken();
+        return token != null && token.isSessionValid() ? token : null;
+    }
+
+    /**
+     * Token是否会在指定时间内过期，没有Token时也返回true
+     *
+     * @param millis 毫秒数
+     */
+    public boolean isExpiringWithin(long millis) {
+        Oauth2AccessToken token = getValidToken();
+        return token == null || token.getExpiresTime() - System.currentTimeMillis() <= millis;
+    }
+
+    /**
+     * 保存Token，无效的Token会被忽略
+     *
+     * @param token 新的Token
+     */
+    public void setToken(Oauth2AccessToken token) {
+        if (token == null || !token.isSessionValid()) {
+            return;
+        }
+        synchronized (mLoadLock) {
+            mToken = token;
+            mLoaded = true;
+        }
+        WeiboAccessTokenKeeper.writeAccessToken(mContext, mPrefsName, token);
+    }
+
+    public void clear() {
+        synchronized (mLoadLock) {
+            mToken = null;
+            mLoaded = true;
+        }
+        WeiboAccessTokenKeeper.clear(mContext, mPrefsName);
+    }
+}